@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copy-on-write container for the announcement messages. Readers get an immutable snapshot without any locking,
+ * writers apply their changes to a private copy and publish it atomically. Writers are serialized, so the listener
+ * sees every message which enters or leaves the library exactly once.
+ *
+ * @author MiHo
+ */
+final class AnnouncementLibrary {
+    /**
+     * Gets told about every message which enters or leaves the library.
+     */
+    interface Listener {
+        /**
+         * Called for every message before it enters the library.
+         *
+         * @param message the added message.
+         * @return the instance to store, equal to the passed message.
+         */
+        String added(String message);
+
+        /**
+         * Called for every message after it left the library.
+         *
+         * @param message the removed message.
+         */
+        void removed(String message);
+    }
+
+    /**
+     * The currently published, unmodifiable snapshot.
+     */
+    private final AtomicReference<List<String>> snapshot =
+        new AtomicReference<List<String>>(Collections.<String>emptyList());
+
+    /**
+     * Gets told about all changes.
+     */
+    private final Listener listener;
+
+    /**
+     * Allocates a new library.
+     *
+     * @param listener gets told about all changes.
+     */
+    AnnouncementLibrary(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the current snapshot of all messages. The returned list never changes.
+     */
+    List<String> snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * @return the number of messages in the current snapshot.
+     */
+    int size() {
+        return snapshot.get().size();
+    }
+
+    /**
+     * Replaces all messages with the passed ones. The new messages are added before the old ones are removed, so
+     * messages which stay in the library are kept by the listener.
+     *
+     * @param messages the new messages.
+     */
+    synchronized void replace(Collection<String> messages) {
+        List<String> replaced = publish(added(new ArrayList<String>(messages.size()), messages));
+        for (String message : replaced) {
+            listener.removed(message);
+        }
+    }
+
+    /**
+     * Appends a message.
+     *
+     * @param message the message to add.
+     */
+    synchronized void add(String message) {
+        addAll(Collections.singletonList(message));
+    }
+
+    /**
+     * Appends all passed messages at once.
+     *
+     * @param messages the messages to add.
+     */
+    synchronized void addAll(Collection<String> messages) {
+        publish(added(new ArrayList<String>(snapshot.get()), messages));
+    }
+
+    /**
+     * Removes the message at the passed position.
+     *
+     * @param index 0 based index.
+     * @return the removed message.
+     * @throws IndexOutOfBoundsException if there is no message with the passed index.
+     */
+    synchronized String remove(int index) {
+        List<String> messages = new ArrayList<String>(snapshot.get());
+        String removed = messages.remove(index);
+        publish(messages);
+        listener.removed(removed);
+        return removed;
+    }
+
+    /**
+     * Removes all messages.
+     */
+    synchronized void clear() {
+        replace(Collections.<String>emptyList());
+    }
+
+    /**
+     * Appends the passed messages, as returned by the listener.
+     */
+    private List<String> added(List<String> messages, Collection<String> added) {
+        for (String message : added) {
+            messages.add(listener.added(message));
+        }
+        return messages;
+    }
+
+    /**
+     * Publishes the passed messages as new snapshot.
+     *
+     * @return the replaced snapshot.
+     */
+    private List<String> publish(List<String> messages) {
+        return snapshot.getAndSet(Collections.unmodifiableList(messages));
+    }
+}
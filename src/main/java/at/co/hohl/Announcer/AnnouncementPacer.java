@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+/**
+ * Task which runs every tick, keeps track of the recent tick intervals and starts the scheduled announcements. While
+ * the server is lagging, due announcements are deferred until it recovers or the maximum delay is reached.
+ * <p/>
+ * The tick interval is the time between two runs of this task, so it includes the time the server sleeps between
+ * ticks and never drops below 50 ms. (20 ticks per second.)
+ *
+ * @author MiHo
+ */
+class AnnouncementPacer implements Runnable {
+    /**
+     * Number of ticks used for the average tick interval.
+     */
+    private static final int SAMPLES = 20;
+
+    /**
+     * The plugin which holds this pacer.
+     */
+    private final AnnouncerPlugin plugin;
+
+    /**
+     * The task which does the announcing.
+     */
+    private final Runnable announcer;
+
+    /**
+     * Ring buffer of the recent tick intervals in nanoseconds.
+     */
+    private final long[] tickIntervals = new long[SAMPLES];
+
+    /**
+     * Next position in the ring buffer.
+     */
+    private int sampleIndex = 0;
+
+    /**
+     * Number of valid entries in the ring buffer.
+     */
+    private int sampleCount = 0;
+
+    /**
+     * Sum of all valid entries in the ring buffer.
+     */
+    private long sampleSum = 0;
+
+    /**
+     * Time of the last tick in nanoseconds, 0 if there wasn't any tick yet.
+     */
+    private long lastTick = 0;
+
+    /**
+     * Ticks left until the next announcement is due.
+     */
+    private long ticksUntilAnnouncement;
+
+    /**
+     * Time in nanoseconds since the due announcement gets deferred. Only valid while deferring.
+     */
+    private long deferredSince;
+
+    /**
+     * Flag if the due announcement is currently deferred.
+     */
+    private boolean deferring = false;
+
+    /**
+     * Number of announcements which got deferred.
+     */
+    private int deferredAnnouncements = 0;
+
+    /**
+     * Number of deferred announcements, which were sent after the server recovered.
+     */
+    private int recoveredAnnouncements = 0;
+
+    /**
+     * Number of deferred announcements, which were sent because the maximum delay was reached.
+     */
+    private int forcedAnnouncements = 0;
+
+    /**
+     * Allocates a new pacer.
+     *
+     * @param plugin    the plugin which holds the pacer.
+     * @param announcer the task which does the announcing.
+     */
+    AnnouncementPacer(AnnouncerPlugin plugin, Runnable announcer) {
+        this.plugin = plugin;
+        this.announcer = announcer;
+        restart();
+    }
+
+    /**
+     * Restarts the countdown to the next announcement with the current interval.
+     */
+    void restart() {
+        ticksUntilAnnouncement = Math.max(1, plugin.getAnnouncementInterval() * 20);
+        deferring = false;
+    }
+
+    /**
+     * Called every tick.
+     */
+    public void run() {
+        long now = System.nanoTime();
+        if (lastTick != 0) {
+            addSample(now - lastTick);
+        }
+        lastTick = now;
+
+        if (--ticksUntilAnnouncement > 0) {
+            return;
+        }
+
+        // The maximum delay is measured in wall time, ticks take longer exactly while deferring.
+        boolean lagging = isLagging();
+        long maxDelay = plugin.getPacingMaxDelay() * 1000000000L;
+        if (lagging && !deferring && maxDelay > 0) {
+            deferring = true;
+            deferredSince = now;
+            ++deferredAnnouncements;
+        }
+        if (lagging && deferring && now - deferredSince < maxDelay) {
+            return;
+        }
+
+        if (deferring) {
+            if (lagging) {
+                ++forcedAnnouncements;
+            } else {
+                ++recoveredAnnouncements;
+            }
+        }
+
+        restart();
+        announcer.run();
+    }
+
+    /**
+     * @return true if the average tick interval is above the configured threshold.
+     */
+    boolean isLagging() {
+        return sampleCount > 0 && getAverageTickMillis() > plugin.getPacingThreshold();
+    }
+
+    /**
+     * @return the average interval between the recent ticks in milliseconds.
+     */
+    double getAverageTickMillis() {
+        return sampleCount > 0 ? sampleSum / (sampleCount * 1000000.0) : 0;
+    }
+
+    /**
+     * @return true if the due announcement is currently deferred.
+     */
+    boolean isDeferring() {
+        return deferring;
+    }
+
+    /**
+     * @return the number of announcements which got deferred.
+     */
+    int getDeferredAnnouncements() {
+        return deferredAnnouncements;
+    }
+
+    /**
+     * @return the number of deferred announcements, which were sent after the server recovered.
+     */
+    int getRecoveredAnnouncements() {
+        return recoveredAnnouncements;
+    }
+
+    /**
+     * @return the number of deferred announcements, which were sent because the maximum delay was reached.
+     */
+    int getForcedAnnouncements() {
+        return forcedAnnouncements;
+    }
+
+    /**
+     * Adds the interval of a tick to the ring buffer.
+     */
+    private void addSample(long interval) {
+        sampleSum += interval - tickIntervals[sampleIndex];
+        tickIntervals[sampleIndex] = interval;
+        sampleIndex = (sampleIndex + 1) % SAMPLES;
+        if (sampleCount < SAMPLES) {
+            ++sampleCount;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+/**
+ * Priorities of queued announcements, highest first.
+ *
+ * @author MiHo
+ */
+public enum AnnouncementPriority {
+    /**
+     * Delivered before anything else without waiting for the minimum gap, pushes back the scheduled announcements.
+     */
+    URGENT,
+
+    /**
+     * Announcements broadcast manually or pushed by other plugins.
+     */
+    NORMAL,
+
+    /**
+     * The scheduled announcements.
+     */
+    ROUTINE
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded queue for announcements pushed by other threads. Any thread may enqueue, the queue is drained in batches
+ * once per tick on the main thread and handed over to the {@link DeliveryQueue}. The queue only accepts announcements
+ * while it is open, which is while the plugin is enabled.
+ *
+ * @author MiHo
+ */
+class AnnouncementQueue implements Runnable {
+    /**
+     * Maximum number of announcements which are not delivered yet, including the ones already handed over.
+     */
+    private static final int CAPACITY = 1000;
+
+    /**
+     * Maximum number of announcements handed over per tick.
+     */
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * The pending announcements.
+     */
+    private final BlockingQueue<PendingAnnouncement> pending =
+        new ArrayBlockingQueue<PendingAnnouncement>(CAPACITY);
+
+    /**
+     * Number of announcements which are neither delivered nor cancelled yet, wherever they are waiting. Handed over
+     * announcements still count, so the delivery queue can't grow beyond the capacity either.
+     */
+    private final AtomicInteger undelivered = new AtomicInteger();
+
+    /**
+     * The pending deduplicated announcements by message.
+     */
+    private final ConcurrentMap<String, PendingAnnouncement> pendingByMessage =
+        new ConcurrentHashMap<String, PendingAnnouncement>();
+
+    /**
+     * Deduplicated announcements whose priority got raised, so the delivery queue needs to reorder them.
+     */
+    private final Queue<PendingAnnouncement> escalated = new ConcurrentLinkedQueue<PendingAnnouncement>();
+
+    /**
+     * Flag if the queue rejects new announcements.
+     */
+    private volatile boolean closed = true;
+
+    /**
+     * Reused buffer for draining the queue. Only used on the main thread.
+     */
+    private final List<PendingAnnouncement> batch = new ArrayList<PendingAnnouncement>(BATCH_SIZE);
+
+    /**
+     * The plugin which delivers the announcements.
+     */
+    private final AnnouncerPlugin plugin;
+
+    /**
+     * Allocates a new queue.
+     *
+     * @param plugin the plugin which delivers the announcements.
+     */
+    AnnouncementQueue(AnnouncerPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Enqueues an announcement. Safe to call from any thread.
+     *
+     * @param message     the announcement, same format as in the config.
+     * @param priority    the priority of the announcement.
+     * @param deduplicate if true and an identical deduplicated announcement is still pending, no new one is queued
+     *                    and the future of the pending one is returned. The pending one gets the higher of both
+     *                    priorities.
+     * @return future which is done as soon as the announcement was delivered.
+     * @throws IllegalStateException if there are too many undelivered announcements or the queue is closed.
+     */
+    Future<Void> enqueue(String message, AnnouncementPriority priority, boolean deduplicate) {
+        if (closed) {
+            throw new IllegalStateException("The announcer is disabled!");
+        }
+
+        PendingAnnouncement announcement = new PendingAnnouncement(message, priority, deduplicate);
+
+        if (deduplicate) {
+            PendingAnnouncement existing;
+            while ((existing = pendingByMessage.putIfAbsent(message, announcement)) != null) {
+                if (!existing.isCancelled()) {
+                    if (existing.escalate(priority)) {
+                        escalated.offer(existing);
+                    }
+                    return existing;
+                }
+
+                // Cancelled just now, it's about to unregister itself.
+                pendingByMessage.remove(message, existing);
+            }
+        }
+
+        if (undelivered.incrementAndGet() > CAPACITY) {
+            undelivered.decrementAndGet();
+            if (deduplicate) {
+                pendingByMessage.remove(message, announcement);
+            }
+            throw new IllegalStateException("Too many pending announcements!");
+        }
+        pending.offer(announcement);
+
+        // The queue might have been closed in between, nobody would deliver the announcement then.
+        if (closed) {
+            pending.remove(announcement);
+            announcement.cancel(false);
+            throw new IllegalStateException("The announcer is disabled!");
+        }
+
+        return announcement;
+    }
+
+    /**
+     * Hands the next batch of announcements over to the delivery queue. Called every tick on the main thread.
+     */
+    public void run() {
+        pending.drainTo(batch, BATCH_SIZE);
+        for (PendingAnnouncement announcement : batch) {
+            plugin.getDeliveryQueue().add(announcement, announcement.priority);
+        }
+        batch.clear();
+
+        // Announcements which are still pending get handed over with their raised priority anyway.
+        PendingAnnouncement announcement;
+        while ((announcement = escalated.poll()) != null) {
+            plugin.getDeliveryQueue().reprioritize(announcement, announcement.priority);
+        }
+    }
+
+    /**
+     * Starts accepting announcements.
+     */
+    void open() {
+        closed = false;
+    }
+
+    /**
+     * Stops accepting announcements and cancels all pending ones.
+     */
+    void close() {
+        closed = true;
+        pending.drainTo(batch);
+        for (PendingAnnouncement announcement : batch) {
+            announcement.cancel(false);
+        }
+        batch.clear();
+        escalated.clear();
+        pendingByMessage.clear();
+    }
+
+    /**
+     * @return the number of announcements which are neither delivered nor cancelled yet.
+     */
+    int size() {
+        return undelivered.get();
+    }
+
+    /**
+     * Announcement waiting for delivery.
+     */
+    private final class PendingAnnouncement extends FutureTask<Void> {
+        /**
+         * The message to announce.
+         */
+        private final String message;
+
+        /**
+         * The priority of the announcement. Only raised, never lowered.
+         */
+        private volatile AnnouncementPriority priority;
+
+        /**
+         * Flag if this announcement is registered for deduplication.
+         */
+        private final boolean deduplicated;
+
+        /**
+         * Allocates a new pending announcement.
+         *
+         * @param message      the message to announce.
+         * @param priority     the priority of the announcement.
+         * @param deduplicated flag if this announcement is registered for deduplication.
+         */
+        PendingAnnouncement(final String message, AnnouncementPriority priority, boolean deduplicated) {
+            super(new Runnable() {
+                public void run() {
+                    plugin.announce(message);
+                }
+            }, null);
+            this.message = message;
+            this.priority = priority;
+            this.deduplicated = deduplicated;
+        }
+
+        /**
+         * Raises the priority of the announcement.
+         *
+         * @param requested the requested priority.
+         * @return true if the priority got raised, false if it was already as high.
+         */
+        synchronized boolean escalate(AnnouncementPriority requested) {
+            if (requested.compareTo(priority) >= 0) {
+                return false;
+            }
+            priority = requested;
+            return true;
+        }
+
+        /**
+         * Delivers the announcement. From now on, identical announcements are queued again.
+         */
+        @Override
+        public void run() {
+            if (deduplicated) {
+                pendingByMessage.remove(message, this);
+            }
+            super.run();
+        }
+
+        /**
+         * Called as soon as the announcement is delivered or cancelled. A cancelled announcement is removed from all
+         * queues, so it neither counts against the capacity nor delays other announcements.
+         */
+        @Override
+        protected void done() {
+            undelivered.decrementAndGet();
+            if (isCancelled()) {
+                if (deduplicated) {
+                    pendingByMessage.remove(message, this);
+                }
+                pending.remove(this);
+                plugin.getDeliveryQueue().remove(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Splits announcements into their segments and renders the prefix and color codes. The library tells the renderer
+ * about every added and removed announcement, so the cache is updated incrementally. The raw announcements and their
+ * rendered segments are stored in a shared {@link SegmentPool}, which counts a reference for every occurrence in the
+ * library. Thread-safe, changes of the library might come from any thread.
+ *
+ * @author MiHo
+ */
+class AnnouncementRenderer implements AnnouncementLibrary.Listener {
+    /**
+     * Marks announcements for an audience, followed by the name of the audience and a space.
+     */
+    static final String AUDIENCE_MARKER = "@audience:";
+
+    /**
+     * The rendered form of an announcement.
+     */
+    static final class Rendered {
+        /**
+         * The audience of the announcement, or null if it goes to everybody.
+         */
+        final String audience;
+
+        /**
+         * The rendered messages and commands, in order.
+         */
+        final String[] segments;
+
+        /**
+         * Flags which of the segments are commands (without the leading slash).
+         */
+        final boolean[] commands;
+
+        /**
+         * Allocates a new rendered announcement.
+         */
+        Rendered(String audience, String[] segments, boolean[] commands) {
+            this.audience = audience;
+            this.segments = segments;
+            this.commands = commands;
+        }
+    }
+
+    /**
+     * Memory used by the announcements of the library.
+     */
+    static final class Usage {
+        /**
+         * Number of announcements in the library.
+         */
+        final int announcements;
+
+        /**
+         * Number of distinct announcements.
+         */
+        final int distinct;
+
+        /**
+         * Number of references to pooled strings, raw announcements and rendered segments.
+         */
+        final int references;
+
+        /**
+         * Number of pooled strings.
+         */
+        final int pooled;
+
+        /**
+         * Estimated heap usage of the distinct raw announcements in bytes.
+         */
+        final long rawBytes;
+
+        /**
+         * Estimated heap usage of all pooled strings in bytes, raw announcements and rendered segments.
+         */
+        final long pooledBytes;
+
+        /**
+         * Estimated heap usage in bytes, if every announcement would hold its own copies.
+         */
+        final long unpooledBytes;
+
+        /**
+         * Estimated heap usage in bytes of a plain list with a copy of every raw announcement, without rendering.
+         */
+        final long plainBytes;
+
+        /**
+         * Allocates a new usage summary.
+         */
+        Usage(int announcements, int distinct, int references, int pooled, long rawBytes, long pooledBytes,
+              long unpooledBytes, long plainBytes) {
+            this.announcements = announcements;
+            this.distinct = distinct;
+            this.references = references;
+            this.pooled = pooled;
+            this.rawBytes = rawBytes;
+            this.pooledBytes = pooledBytes;
+            this.unpooledBytes = unpooledBytes;
+            this.plainBytes = plainBytes;
+        }
+    }
+
+    /**
+     * Pool of the raw announcements and rendered segments of the library.
+     */
+    private final SegmentPool pool = new SegmentPool();
+
+    /**
+     * The cached announcements of the library by their raw line.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Announcements which were rendered before, e.g. read from the snapshot. They are used instead of rendering them
+     * again as soon as they get added. Only valid for the current prefix.
+     */
+    private Map<String, Rendered> prerendered = new HashMap<String, Rendered>();
+
+    /**
+     * The prefix of all messages.
+     */
+    private String prefix = "";
+
+    /**
+     * Renders an announcement. Announcements of the library are taken from the cache.
+     *
+     * @param line the announcement.
+     * @return the rendered announcement.
+     */
+    synchronized Rendered render(String line) {
+        Entry entry = entries.get(line);
+        return entry != null ? entry.rendered : compile(line, prefix, null);
+    }
+
+    /**
+     * Changes the prefix and renders all cached announcements again.
+     *
+     * @param prefix the prefix of all messages.
+     */
+    synchronized void setPrefix(String prefix) {
+        if (prefix.equals(this.prefix)) {
+            return;
+        }
+
+        this.prefix = prefix;
+        prerendered.clear();
+        for (Entry entry : entries.values()) {
+            for (int occurrence = 0; occurrence < entry.occurrences; ++occurrence) {
+                release(entry.rendered);
+            }
+            entry.rendered = compile(entry.line, prefix, pool);
+            for (int occurrence = 1; occurrence < entry.occurrences; ++occurrence) {
+                acquire(entry.rendered);
+            }
+        }
+    }
+
+    /**
+     * Provides announcements, which were rendered with the current prefix before. They are taken instead of
+     * rendering them again when they get added to the library.
+     *
+     * @param rendered the rendered announcements by their raw line.
+     */
+    synchronized void setPrerendered(Map<String, Rendered> rendered) {
+        prerendered = new HashMap<String, Rendered>(rendered);
+    }
+
+    /**
+     * Returns the rendered form of the passed announcements of the library.
+     *
+     * @param lines the announcements.
+     * @return the rendered announcements by their raw line.
+     */
+    synchronized Map<String, Rendered> renderAll(Collection<String> lines) {
+        Map<String, Rendered> rendered = new LinkedHashMap<String, Rendered>();
+        for (String line : lines) {
+            if (!rendered.containsKey(line)) {
+                rendered.put(line, render(line));
+            }
+        }
+        return rendered;
+    }
+
+    /**
+     * Adds an occurrence of an announcement to the cache. Called by the library.
+     *
+     * @param line the announcement.
+     * @return the pooled instance of the announcement.
+     */
+    public synchronized String added(String line) {
+        Entry entry = entries.get(line);
+        if (entry == null) {
+            String pooledLine = pool.acquire(line);
+            Rendered rendered = prerendered.remove(line);
+            if (rendered != null) {
+                acquire(rendered);
+            } else {
+                rendered = compile(pooledLine, prefix, pool);
+            }
+            entry = new Entry(pooledLine, rendered);
+            entries.put(pooledLine, entry);
+        } else {
+            pool.acquire(entry.line);
+            acquire(entry.rendered);
+        }
+        ++entry.occurrences;
+        return entry.line;
+    }
+
+    /**
+     * Removes an occurrence of an announcement from the cache. Called by the library.
+     *
+     * @param line the announcement.
+     */
+    public synchronized void removed(String line) {
+        Entry entry = entries.get(line);
+        if (entry != null) {
+            pool.release(entry.line);
+            release(entry.rendered);
+            if (--entry.occurrences == 0) {
+                entries.remove(line);
+            }
+        }
+    }
+
+    /**
+     * @param line the announcement.
+     * @return the number of occurrences of the announcement in the library.
+     */
+    synchronized int occurrencesOf(String line) {
+        Entry entry = entries.get(line);
+        return entry != null ? entry.occurrences : 0;
+    }
+
+    /**
+     * @param string a raw announcement or rendered segment.
+     * @return the number of references to the pooled string.
+     */
+    synchronized int referencesOf(String string) {
+        return pool.referencesOf(string);
+    }
+
+    /**
+     * @return the memory used by the announcements of the library.
+     */
+    synchronized Usage getUsage() {
+        int announcements = 0;
+        long rawBytes = 0;
+        long plainBytes = 0;
+        for (Entry entry : entries.values()) {
+            announcements += entry.occurrences;
+            rawBytes += SegmentPool.estimateBytes(entry.line);
+            plainBytes += SegmentPool.estimateBytes(entry.line) * entry.occurrences;
+        }
+        return new Usage(announcements, entries.size(), pool.references(), pool.size(), rawBytes,
+            pool.pooledBytes(), pool.unpooledBytes(), plainBytes);
+    }
+
+    /**
+     * Adds a reference to all segments and replaces them with their pooled instances.
+     */
+    private void acquire(Rendered rendered) {
+        for (int index = 0; index < rendered.segments.length; ++index) {
+            rendered.segments[index] = pool.acquire(rendered.segments[index]);
+        }
+    }
+
+    /**
+     * Removes a reference from all segments.
+     */
+    private void release(Rendered rendered) {
+        for (String segment : rendered.segments) {
+            pool.release(segment);
+        }
+    }
+
+    /**
+     * Splits and renders an announcement.
+     *
+     * @param line   the announcement.
+     * @param prefix the prefix of all messages.
+     * @param pool   the pool to store the segments in, or null.
+     * @return the rendered announcement.
+     */
+    private static Rendered compile(String line, String prefix, SegmentPool pool) {
+        String audience = null;
+        if (line.startsWith(AUDIENCE_MARKER)) {
+            int audienceEnd = line.indexOf(' ');
+            String name = line.substring(AUDIENCE_MARKER.length(), audienceEnd < 0 ? line.length() : audienceEnd);
+            if (name.length() > 0) {
+                audience = name;
+                line = audienceEnd < 0 ? "" : line.substring(audienceEnd + 1);
+            }
+        }
+
+        String[] segments = line.split("&n");
+        boolean[] commands = new boolean[segments.length];
+        for (int index = 0; index < segments.length; ++index) {
+            String segment;
+            if (segments[index].startsWith("/")) {
+                commands[index] = true;
+                segment = segments[index].substring(1);
+            } else {
+                segment = ChatColorHelper.replaceColorCodes(prefix + segments[index]);
+            }
+            segments[index] = pool != null ? pool.acquire(segment) : segment;
+        }
+
+        return new Rendered(audience, segments, commands);
+    }
+
+    /**
+     * Cached announcement of the library.
+     */
+    private static final class Entry {
+        /**
+         * The pooled raw announcement.
+         */
+        private final String line;
+
+        /**
+         * The rendered announcement, with pooled segments.
+         */
+        private Rendered rendered;
+
+        /**
+         * Number of occurrences in the library.
+         */
+        private int occurrences = 0;
+
+        /**
+         * Allocates a new entry.
+         */
+        Entry(String line, Rendered rendered) {
+            this.line = line;
+            this.rendered = rendered;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports and exports announcements from and to files in the data folder. Files are read and written asynchronously,
+ * the library itself is only changed on the main thread. Files ending with .json or .jsonl contain one JSON string
+ * per line, .txt files contain one plain message per line. In plain files, lines starting with # are comments and a
+ * leading backslash escapes messages which start with # or a backslash themselves.
+ *
+ * @author MiHo
+ */
+class AnnouncementTransfer {
+    /**
+     * Number of lines after which the progress gets reported.
+     */
+    private static final int PROGRESS_STEP = 500;
+
+    /**
+     * The plugin which holds the announcements.
+     */
+    private final AnnouncerPlugin plugin;
+
+    /**
+     * Allocates a new AnnouncementTransfer.
+     *
+     * @param plugin the plugin which holds the announcements.
+     */
+    AnnouncementTransfer(AnnouncerPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Resolves the passed file name inside the data folder. Only .txt, .json and .jsonl files are allowed, so the
+     * configuration of the plugin can't be read or overwritten.
+     *
+     * @param name the name of the file.
+     * @return the file, or null if the name points outside the data folder or has another extension.
+     * @throws IOException if the path could not be resolved.
+     */
+    File resolve(String name) throws IOException {
+        File folder = plugin.getDataFolder().getCanonicalFile();
+        File file = new File(folder, name).getCanonicalFile();
+        return folder.equals(file.getParentFile()) && (isJsonLines(file) || isPlainText(file)) ? file : null;
+    }
+
+    /**
+     * Reads all announcements of the passed file and appends them to the library. Nothing is added if any line is
+     * invalid.
+     *
+     * @param sender the sender which gets informed about the progress.
+     * @param file   the file to import.
+     */
+    void importFrom(final CommandSender sender, final File file) {
+        plugin.getServer().getScheduler().scheduleAsyncDelayedTask(plugin, new Runnable() {
+            public void run() {
+                final List<String> messages = new ArrayList<String>();
+                final boolean json = isJsonLines(file);
+                int lineNumber = 0;
+
+                try {
+                    BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+                    try {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            ++lineNumber;
+                            if (line.trim().length() == 0 || (!json && line.startsWith("#"))) {
+                                continue;
+                            }
+
+                            String message = json ? parseJsonString(line.trim()) : unescapePlainText(line);
+                            if (message.trim().length() == 0) {
+                                throw new IllegalArgumentException("empty message");
+                            }
+                            messages.add(message);
+
+                            if (lineNumber % PROGRESS_STEP == 0) {
+                                tell(sender, String.format("%sRead %d lines...", ChatColor.GRAY, lineNumber));
+                            }
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                } catch (IOException e) {
+                    tell(sender, String.format("%sCould not read '%s': %s", ChatColor.RED, file.getName(),
+                        e.getMessage()));
+                    return;
+                } catch (IllegalArgumentException e) {
+                    tell(sender, String.format("%sInvalid line %d in '%s': %s. Nothing imported!", ChatColor.RED,
+                        lineNumber, file.getName(), e.getMessage()));
+                    return;
+                }
+
+                plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+                    public void run() {
+                        plugin.addAnnouncements(messages);
+                        sender.sendMessage(String.format("%sImported %d announcements from '%s'.", ChatColor.GREEN,
+                            messages.size(), file.getName()));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Writes all announcements into the passed file.
+     *
+     * @param sender    the sender which gets informed about the progress.
+     * @param file      the file to write.
+     * @param overwrite true to replace the file if it already exists.
+     */
+    void exportTo(final CommandSender sender, final File file, final boolean overwrite) {
+        final List<String> messages = plugin.getAnnouncements();
+
+        plugin.getServer().getScheduler().scheduleAsyncDelayedTask(plugin, new Runnable() {
+            public void run() {
+                boolean json = isJsonLines(file);
+
+                if (!json) {
+                    for (int index = 0; index < messages.size(); ++index) {
+                        if (messages.get(index).indexOf('\n') >= 0 || messages.get(index).indexOf('\r') >= 0) {
+                            tell(sender, String.format("%sAnnouncement %d contains a line break, export to a .json " +
+                                "file instead!", ChatColor.RED, index + 1));
+                            return;
+                        }
+                    }
+                }
+
+                try {
+                    if (!overwrite && !file.createNewFile()) {
+                        tell(sender, String.format("%s'%s' already exists! Use '/announce export %s overwrite' to " +
+                            "replace it.", ChatColor.RED, file.getName(), file.getName()));
+                        return;
+                    }
+
+                    BufferedWriter writer =
+                        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+                    try {
+                        int written = 0;
+                        for (String message : messages) {
+                            writer.write(json ? toJsonString(message) : escapePlainText(message));
+                            writer.newLine();
+
+                            if (++written % PROGRESS_STEP == 0) {
+                                tell(sender, String.format("%sWrote %d of %d announcements...", ChatColor.GRAY,
+                                    written, messages.size()));
+                            }
+                        }
+                    } finally {
+                        writer.close();
+                    }
+                } catch (IOException e) {
+                    tell(sender, String.format("%sCould not write '%s': %s", ChatColor.RED, file.getName(),
+                        e.getMessage()));
+                    return;
+                }
+
+                tell(sender, String.format("%sExported %d announcements to '%s'.", ChatColor.GREEN, messages.size(),
+                    file.getName()));
+            }
+        });
+    }
+
+    /**
+     * Sends the message to the sender on the main thread.
+     */
+    private void tell(final CommandSender sender, final String message) {
+        plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+            public void run() {
+                sender.sendMessage(message);
+            }
+        });
+    }
+
+    /**
+     * @param file the file to check.
+     * @return true if the file contains JSON lines.
+     */
+    static boolean isJsonLines(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".json") || name.endsWith(".jsonl");
+    }
+
+    /**
+     * @param file the file to check.
+     * @return true if the file contains plain messages.
+     */
+    static boolean isPlainText(File file) {
+        return file.getName().toLowerCase().endsWith(".txt");
+    }
+
+    /**
+     * Escapes a message for plain files, so it isn't taken for a comment when importing it again.
+     *
+     * @param message the message to escape.
+     * @return the line to write.
+     */
+    static String escapePlainText(String message) {
+        return message.startsWith("#") || message.startsWith("\\") ? "\\" + message : message;
+    }
+
+    /**
+     * Reverts {@link #escapePlainText(String)}.
+     *
+     * @param line the line read from a plain file.
+     * @return the message.
+     */
+    static String unescapePlainText(String line) {
+        return line.startsWith("\\") ? line.substring(1) : line;
+    }
+
+    /**
+     * Parses a single JSON string literal.
+     *
+     * @param literal the literal including the quotes.
+     * @return the parsed string.
+     * @throws IllegalArgumentException if the literal is no valid JSON string.
+     */
+    static String parseJsonString(String literal) {
+        if (literal.length() < 2 || literal.charAt(0) != '"' || literal.charAt(literal.length() - 1) != '"') {
+            throw new IllegalArgumentException("expected a quoted JSON string");
+        }
+
+        StringBuilder result = new StringBuilder(literal.length());
+        for (int index = 1; index < literal.length() - 1; ++index) {
+            char current = literal.charAt(index);
+            if (current == '"') {
+                throw new IllegalArgumentException("unescaped quote at column " + (index + 1));
+            } else if (current != '\\') {
+                result.append(current);
+                continue;
+            }
+
+            if (++index >= literal.length() - 1) {
+                throw new IllegalArgumentException("incomplete escape sequence");
+            }
+            char escaped = literal.charAt(index);
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    result.append(escaped);
+                    break;
+                case 'b':
+                    result.append('\b');
+                    break;
+                case 'f':
+                    result.append('\f');
+                    break;
+                case 'n':
+                    result.append('\n');
+                    break;
+                case 'r':
+                    result.append('\r');
+                    break;
+                case 't':
+                    result.append('\t');
+                    break;
+                case 'u':
+                    if (index + 4 >= literal.length() - 1) {
+                        throw new IllegalArgumentException("incomplete unicode escape");
+                    }
+                    int code = 0;
+                    for (int digit = 0; digit < 4; ++digit) {
+                        int value = hexValue(literal.charAt(++index));
+                        if (value < 0) {
+                            throw new IllegalArgumentException("invalid unicode escape");
+                        }
+                        code = code * 16 + value;
+                    }
+                    result.append((char) code);
+                    break;
+                default:
+                    throw new IllegalArgumentException("invalid escape sequence \\" + escaped);
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Unlike Integer.parseInt and Character.digit, only ASCII hex digits are accepted, as JSON requires.
+     *
+     * @param digit the hex digit.
+     * @return the value of the digit, or -1 if it is no hex digit.
+     */
+    private static int hexValue(char digit) {
+        if (digit >= '0' && digit <= '9') {
+            return digit - '0';
+        } else if (digit >= 'a' && digit <= 'f') {
+            return digit - 'a' + 10;
+        } else if (digit >= 'A' && digit <= 'F') {
+            return digit - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Formats the passed string as JSON string literal.
+     *
+     * @param string the string to format.
+     * @return the literal including the quotes.
+     */
+    static String toJsonString(String string) {
+        StringBuilder result = new StringBuilder(string.length() + 2);
+        result.append('"');
+        for (int index = 0; index < string.length(); ++index) {
+            char current = string.charAt(index);
+            switch (current) {
+                case '"':
+                    result.append("\\\"");
+                    break;
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                default:
+                    if (current < 0x20) {
+                        result.append(String.format("\\u%04x", (int) current));
+                    } else {
+                        result.append(current);
+                    }
+            }
+        }
+        result.append('"');
+        return result.toString();
+    }
+}
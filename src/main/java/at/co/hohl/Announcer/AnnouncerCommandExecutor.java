@@ -19,6 +19,14 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 /**
  * Command Executor used by the AnnouncerPlugin.
  *
@@ -35,6 +43,41 @@ class AnnouncerCommandExecutor implements CommandExecutor {
      */
     private final AnnouncerPlugin plugin;
 
+    /**
+     * Used to import and export announcements.
+     */
+    private final AnnouncementTransfer transfer;
+
+    /**
+     * The registered subcommands, in order of registration.
+     */
+    private final List<Subcommand> subcommands = new ArrayList<Subcommand>();
+
+    /**
+     * The registered subcommands by case folded name and alias.
+     */
+    private final Map<String, Subcommand> subcommandsByName = new HashMap<String, Subcommand>();
+
+    /**
+     * The announcements the cached completions were built for.
+     */
+    private List<String> completedAnnouncements;
+
+    /**
+     * Cached completions for arguments of the kind INDEX.
+     */
+    private List<String> indexCompletions;
+
+    /**
+     * Cached case folded previews of the announcements, used to complete indexes by text.
+     */
+    private List<String> previewCompletions;
+
+    /**
+     * Cached completions for arguments of the kind PAGE.
+     */
+    private List<String> pageCompletions;
+
     /**
      * Allocates a new AnnouncerCommandExecutor.
      *
@@ -42,6 +85,113 @@ class AnnouncerCommandExecutor implements CommandExecutor {
      */
     AnnouncerCommandExecutor(AnnouncerPlugin plugin) {
         this.plugin = plugin;
+        this.transfer = new AnnouncementTransfer(plugin);
+
+        register(new Subcommand("version", new String[]{"info"}, null, 0, new Subcommand.Argument[0],
+            new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onVersionCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("help", new String[0], null, 0, new Subcommand.Argument[0],
+            new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onHelpCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("add", new String[0], AnnouncerPermissions.ADD, 1,
+            new Subcommand.Argument[]{Subcommand.Argument.TEXT}, new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onAddCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("broadcast", new String[]{"now"}, AnnouncerPermissions.BROADCAST, 0,
+            new Subcommand.Argument[]{Subcommand.Argument.INDEX, Subcommand.Argument.URGENT},
+            new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onBroadcastCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("list", new String[0], AnnouncerPermissions.MODERATOR, 0,
+            new Subcommand.Argument[]{Subcommand.Argument.PAGE}, new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onListCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("delete", new String[0], AnnouncerPermissions.DELETE, 1,
+            new Subcommand.Argument[]{Subcommand.Argument.INDEX}, new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onDeleteCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("interval", new String[0], AnnouncerPermissions.MODERATOR, 0,
+            new Subcommand.Argument[]{Subcommand.Argument.NUMBER}, new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onIntervalCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("prefix", new String[0], AnnouncerPermissions.MODERATOR, 0,
+            new Subcommand.Argument[]{Subcommand.Argument.TEXT}, new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onPrefixCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("random", new String[0], AnnouncerPermissions.MODERATOR, 0,
+            new Subcommand.Argument[]{Subcommand.Argument.BOOLEAN}, new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onRandomCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("enable", new String[0], AnnouncerPermissions.MODERATOR, 0,
+            new Subcommand.Argument[]{Subcommand.Argument.BOOLEAN}, new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onEnableCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("reload", new String[0], AnnouncerPermissions.MODERATOR, 0, new Subcommand.Argument[0],
+            new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onReloadCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("pacing", new String[0], AnnouncerPermissions.MODERATOR, 0, new Subcommand.Argument[0],
+            new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onPacingCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("memory", new String[0], AnnouncerPermissions.MODERATOR, 0,
+            new Subcommand.Argument[]{Subcommand.Argument.INDEX}, new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onMemoryCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("import", new String[0], AnnouncerPermissions.ADMINISTRATOR, 1,
+            new Subcommand.Argument[]{Subcommand.Argument.FILE}, new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onImportCommand(sender, arguments);
+                }
+            }));
+        register(new Subcommand("export", new String[0], AnnouncerPermissions.ADMINISTRATOR, 1,
+            new Subcommand.Argument[]{Subcommand.Argument.FILE, Subcommand.Argument.OVERWRITE},
+            new Subcommand.Handler() {
+                public boolean onCommand(CommandSender sender, Subcommand.Values arguments) {
+                    return onExportCommand(sender, arguments);
+                }
+            }));
+    }
+
+    /**
+     * Registers a subcommand by its name and aliases.
+     *
+     * @param subcommand the subcommand to register.
+     */
+    void register(Subcommand subcommand) {
+        subcommands.add(subcommand);
+        subcommandsByName.put(fold(subcommand.name), subcommand);
+        for (String alias : subcommand.aliases) {
+            subcommandsByName.put(fold(alias), subcommand);
+        }
     }
 
     /**
@@ -54,30 +204,22 @@ class AnnouncerCommandExecutor implements CommandExecutor {
      * @return true if a valid command, otherwise false
      */
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
-        boolean success;
+        Subcommand subcommand = subcommandsByName.get(args.length == 0 ? "version" : fold(args[0]));
 
-        if (args.length == 0 || args[0].equalsIgnoreCase("version") || args[0].equalsIgnoreCase("info")) {
-            success = onVersionCommand(sender, command, label, args);
-        } else if ("help".equalsIgnoreCase(args[0])) {
-            success = onHelpCommand(sender, command, label, args);
-        } else if ("add".equalsIgnoreCase(args[0])) {
-            success = onAddCommand(sender, command, label, args);
-        } else if ("broadcast".equalsIgnoreCase(args[0]) || "now".equalsIgnoreCase(args[0])) {
-            success = onBroadcastCommand(sender, command, label, args);
-        } else if ("list".equalsIgnoreCase(args[0])) {
-            success = onListCommand(sender, command, label, args);
-        } else if ("delete".equalsIgnoreCase(args[0])) {
-            success = onDeleteCommand(sender, command, label, args);
-        } else if ("interval".equalsIgnoreCase(args[0])) {
-            success = onIntervalCommand(sender, command, label, args);
-        } else if ("prefix".equalsIgnoreCase(args[0])) {
-            success = onPrefixCommand(sender, command, label, args);
-        } else if ("random".equalsIgnoreCase(args[0])) {
-            success = onRandomCommand(sender, command, label, args);
-        } else if ("enable".equalsIgnoreCase(args[0])) {
-            success = onEnableCommand(sender, command, label, args);
-        } else if ("reload".equalsIgnoreCase(args[0])) {
-            success = onReloadCommand(sender, command, label, args);
+        boolean success;
+        if (subcommand != null && subcommand.isPermitted(sender)) {
+            try {
+                Subcommand.Values arguments = subcommand.parse(args, plugin.numberOfAnnouncements());
+                success = subcommand.handler.onCommand(sender, arguments);
+            } catch (IllegalArgumentException e) {
+                sender.sendMessage(ChatColor.RED + e.getMessage());
+                success = true;
+            } catch (IndexOutOfBoundsException e) {
+                // The announcement was removed by somebody else in the meantime.
+                sender.sendMessage(ChatColor.RED + "There isn't any announcement with the passed index anymore! " +
+                    "Use '/announce list' to view all available announcements.");
+                success = true;
+            }
         } else {
             success = false;
         }
@@ -91,15 +233,133 @@ class AnnouncerCommandExecutor implements CommandExecutor {
     }
 
     /**
-     * Called when user uses the /announce version command.
+     * Called when the client requests tab completion. Matches the signature of Bukkit's TabCompleter, the plugin
+     * registers it on servers which support tab completion.
      *
      * @param sender  the sender. (In most case a player.)
      * @param command the command send.
-     * @param label   the label used for the command
-     * @param args    the arguments.
+     * @param alias   the alias used for the command
+     * @param args    the arguments, the last one is the one to complete.
+     * @return the possible completions.
+     */
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        List<String> completions = new ArrayList<String>();
+        if (args.length == 0) {
+            return completions;
+        }
+
+        String prefix = fold(args[args.length - 1]);
+        if (args.length == 1) {
+            for (Subcommand subcommand : subcommands) {
+                if (subcommand.isPermitted(sender)) {
+                    addMatching(completions, prefix, subcommand.name);
+                    for (String subcommandAlias : subcommand.aliases) {
+                        addMatching(completions, prefix, subcommandAlias);
+                    }
+                }
+            }
+            return completions;
+        }
+
+        Subcommand subcommand = subcommandsByName.get(fold(args[0]));
+        if (subcommand == null || !subcommand.isPermitted(sender) || args.length - 1 > subcommand.arguments.length) {
+            return completions;
+        }
+
+        Subcommand.Argument argument = subcommand.arguments[args.length - 2];
+        if (argument.flag != null) {
+            addMatching(completions, prefix, argument.flag);
+            return completions;
+        }
+
+        refreshCompletions();
+        switch (argument) {
+            case INDEX:
+                for (int index = 0; index < indexCompletions.size(); ++index) {
+                    if (indexCompletions.get(index).startsWith(prefix)
+                        || (prefix.length() > 0 && previewCompletions.get(index).contains(prefix))) {
+                        completions.add(indexCompletions.get(index));
+                    }
+                }
+                break;
+            case PAGE:
+                for (String page : pageCompletions) {
+                    addMatching(completions, prefix, page);
+                }
+                break;
+            case BOOLEAN:
+                addMatching(completions, prefix, "true");
+                addMatching(completions, prefix, "false");
+                break;
+            case FILE:
+                String[] files = plugin.getDataFolder().list();
+                if (files != null) {
+                    for (String file : files) {
+                        boolean transferable = AnnouncementTransfer.isJsonLines(new File(file)) ||
+                            AnnouncementTransfer.isPlainText(new File(file));
+                        if (transferable && fold(file).startsWith(prefix)) {
+                            completions.add(file);
+                        }
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        return completions;
+    }
+
+    /**
+     * Rebuilds the cached completions if the announcements changed since the last time.
+     */
+    private void refreshCompletions() {
+        List<String> announcements = plugin.getAnnouncements();
+        if (announcements == completedAnnouncements) {
+            return;
+        }
+
+        List<String> indexes = new ArrayList<String>(announcements.size());
+        List<String> previews = new ArrayList<String>(announcements.size());
+        for (int index = 0; index < announcements.size(); ++index) {
+            indexes.add(String.valueOf(index + 1));
+            previews.add(fold(ChatColor.stripColor(ChatColorHelper.replaceColorCodes(announcements.get(index)))));
+        }
+
+        List<String> pages = new ArrayList<String>();
+        for (int page = 1; page <= announcements.size() / ENTRIES_PER_PAGE + 1; ++page) {
+            pages.add(String.valueOf(page));
+        }
+
+        indexCompletions = indexes;
+        previewCompletions = previews;
+        pageCompletions = pages;
+        completedAnnouncements = announcements;
+    }
+
+    /**
+     * Adds the candidate to the completions if it starts with the passed prefix.
+     */
+    private static void addMatching(List<String> completions, String prefix, String candidate) {
+        if (candidate.startsWith(prefix)) {
+            completions.add(candidate);
+        }
+    }
+
+    /**
+     * @return the case folded string, used for looking up names.
+     */
+    private static String fold(String string) {
+        return string.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Called when user uses the /announce version command.
+     *
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
      * @return true if a valid command, otherwise false
      */
-    boolean onVersionCommand(CommandSender sender, Command command, String label, String[] args) {
+    boolean onVersionCommand(CommandSender sender, Subcommand.Values arguments) {
         sender.sendMessage(
             String.format("%s === %s [Version %s] === ", ChatColor.LIGHT_PURPLE, plugin.getDescription().getName(),
                 plugin.getDescription().getVersion()));
@@ -118,13 +378,11 @@ class AnnouncerCommandExecutor implements CommandExecutor {
     /**
      * Called when user uses the /announce help command.
      *
-     * @param sender  the sender. (In most case a player.)
-     * @param command the command send.
-     * @param label   the label used for the command
-     * @param args    the arguments.
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
      * @return true if a valid command, otherwise false
      */
-    boolean onHelpCommand(CommandSender sender, Command command, String label, String[] args) {
+    boolean onHelpCommand(CommandSender sender, Subcommand.Values arguments) {
         sender.sendMessage(String.format("%s === %s [Version %s] === ", ChatColor.LIGHT_PURPLE,
             plugin.getDescription().getName(), plugin.getDescription().getVersion()));
         if (sender.hasPermission(AnnouncerPermissions.ADD)) {
@@ -132,8 +390,8 @@ class AnnouncerCommandExecutor implements CommandExecutor {
                 " - Adds a new announcement");
         }
         if (sender.hasPermission(AnnouncerPermissions.BROADCAST)) {
-            sender.sendMessage(ChatColor.GRAY + "/announce broadcast [<index>]" + ChatColor.WHITE +
-                " - Broadcast an announcement NOW");
+            sender.sendMessage(ChatColor.GRAY + "/announce broadcast [<index>] [urgent]" + ChatColor.WHITE +
+                " - Queues an announcement, or sends it right away if urgent");
         }
         if (sender.hasPermission(AnnouncerPermissions.DELETE)) {
             sender.sendMessage(ChatColor.GRAY + "/announce delete <index>" + ChatColor.WHITE +
@@ -149,9 +407,17 @@ class AnnouncerCommandExecutor implements CommandExecutor {
             sender.sendMessage(ChatColor.GRAY + "/announce list" + ChatColor.WHITE + " - Lists all announcements");
             sender.sendMessage(ChatColor.GRAY + "/announce random [true|false]" + ChatColor.WHITE +
                 " - Enables or disables the random announcing mode.");
+            sender.sendMessage(ChatColor.GRAY + "/announce pacing" + ChatColor.WHITE +
+                " - Shows the tick interval and deferred announcements.");
+            sender.sendMessage(ChatColor.GRAY + "/announce memory [<index>]" + ChatColor.WHITE +
+                " - Shows the memory used by the announcements.");
         }
         if (sender.hasPermission(AnnouncerPermissions.ADMINISTRATOR)) {
             sender.sendMessage(ChatColor.GRAY + "/announce reload" + ChatColor.WHITE + " - Reloads the config.yml");
+            sender.sendMessage(ChatColor.GRAY + "/announce import <file>" + ChatColor.WHITE +
+                " - Adds all announcements of a file in the plugin folder");
+            sender.sendMessage(ChatColor.GRAY + "/announce export <file> [overwrite]" + ChatColor.WHITE +
+                " - Writes all announcements into a file in the plugin folder");
         }
 
         return true;
@@ -160,315 +426,294 @@ class AnnouncerCommandExecutor implements CommandExecutor {
     /**
      * Called when user uses the /announce add command.
      *
-     * @param sender  the sender. (In most case a player.)
-     * @param command the command send.
-     * @param label   the label used for the command
-     * @param args    the arguments.
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
      * @return true if a valid command, otherwise false
      */
-    boolean onAddCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (sender.hasPermission(AnnouncerPermissions.ADD)) {
-            if (args.length > 1) {
-                StringBuilder messageToAnnounce = new StringBuilder();
-                for (int index = 1; index < args.length; ++index) {
-                    messageToAnnounce.append(args[index]);
-                    messageToAnnounce.append(" ");
-                }
-                plugin.addAnnouncement(messageToAnnounce.toString());
-
-                sender.sendMessage(ChatColor.GREEN + "Added announcement successfully!");
-            } else {
-                sender.sendMessage(ChatColor.RED + "You need to pass a message to announce!");
-            }
+    boolean onAddCommand(CommandSender sender, Subcommand.Values arguments) {
+        plugin.addAnnouncement(arguments.getString(0));
+        sender.sendMessage(ChatColor.GREEN + "Added announcement successfully!");
 
-            return true;
-        } else {
-            return false;
-        }
+        return true;
     }
 
     /**
      * Called when user uses the /announce broadcast command.
      *
-     * @param sender  the sender. (In most case a player.)
-     * @param command the command send.
-     * @param label   the label used for the command
-     * @param args    the arguments.
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
      * @return true if a valid command, otherwise false
      */
-    boolean onBroadcastCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (sender.hasPermission(AnnouncerPermissions.BROADCAST)) {
-            if (args.length == 2) {
-                try {
-                    int index = Integer.parseInt(args[1]);
-
-                    if (index > 0 && index <= plugin.numberOfAnnouncements()) {
-                        plugin.announce(index);
-                    } else {
-                        sender.sendMessage(
-                            ChatColor.RED + "There isn't any announcement with the passed index!");
-                        sender.sendMessage(
-                            ChatColor.RED + "Use '/announce list' to view all available announcements.");
-                    }
-                } catch (NumberFormatException e) {
-                    sender.sendMessage(ChatColor.RED + "Index must be a integer!");
-                }
-            } else if (args.length == 1) {
-                plugin.announce();
-            } else {
-                sender.sendMessage(ChatColor.RED + "Invalid number of arguments! Use /announce help to view the help!");
-            }
+    boolean onBroadcastCommand(CommandSender sender, Subcommand.Values arguments) {
+        boolean urgent = arguments.getBoolean(1);
+        if (arguments.has(0)) {
+            plugin.announce(arguments.getInt(0), urgent ? AnnouncementPriority.URGENT : AnnouncementPriority.NORMAL);
+        } else {
+            plugin.announce();
+        }
 
-            return true;
+        if (urgent) {
+            sender.sendMessage(ChatColor.GREEN + "Announcement will be sent right away!");
         } else {
-            return false;
+            sender.sendMessage(String.format("%sAnnouncement queued! It is sent after the ones queued before, at " +
+                "least %d seconds after the last announcement.", ChatColor.GREEN, plugin.getMinimumGap()));
         }
+
+        return true;
     }
 
     /**
      * Called when user uses the /announce list command.
      *
-     * @param sender  the sender. (In most case a player.)
-     * @param command the command send.
-     * @param label   the label used for the command
-     * @param args    the arguments.
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
      * @return true if a valid command, otherwise false
      */
-    boolean onListCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (sender.hasPermission(AnnouncerPermissions.MODERATOR)) {
-            if (args.length == 1 || args.length == 2) {
-                int page = 1;
-                if (args.length == 2) {
-                    try {
-                        page = Integer.parseInt(args[1]);
-                    } catch (NumberFormatException e) {
-                        sender.sendMessage(ChatColor.RED + "Invalid page number!");
-                    }
-                }
-                sender.sendMessage(ChatColor.GREEN + String.format(" === Announcements [Page %d/%d] ===", page,
-                    plugin.announcementMessages.size() / ENTRIES_PER_PAGE + 1));
+    boolean onListCommand(CommandSender sender, Subcommand.Values arguments) {
+        int page = arguments.has(0) ? arguments.getInt(0) : 1;
+        List<String> announcements = plugin.getAnnouncements();
+        sender.sendMessage(ChatColor.GREEN + String.format(" === Announcements [Page %d/%d] ===", page,
+            announcements.size() / ENTRIES_PER_PAGE + 1));
+
+        final int indexStart = (page - 1) * ENTRIES_PER_PAGE;
+        final int indexStop = Math.min(page * ENTRIES_PER_PAGE, announcements.size());
+
+        for (int index = indexStart + 1; index <= indexStop; ++index) {
+            sender.sendMessage(String.format("%d - %s", index, ChatColorHelper.replaceColorCodes(
+                announcements.get(index - 1))));
+        }
 
-                final int indexStart = Math.abs(page - 1) * ENTRIES_PER_PAGE;
-                final int indexStop = Math.min(page * ENTRIES_PER_PAGE, plugin.announcementMessages.size());
+        return true;
+    }
 
-                for (int index = indexStart + 1; index <= indexStop; ++index) {
-                    sender.sendMessage(String.format("%d - %s", index, ChatColorHelper.replaceColorCodes(
-                        plugin.getAnnouncement(index))));
-                }
-            } else {
-                sender.sendMessage(
-                    ChatColor.RED + "Invalid number of arguments! Use '/announce help' to view the help.");
-            }
+    /**
+     * Called when user uses the /announce delete command.
+     *
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
+     * @return true if a valid command, otherwise false
+     */
+    boolean onDeleteCommand(CommandSender sender, Subcommand.Values arguments) {
+        sender.sendMessage(String.format("%sRemoved announcement: '%s'", ChatColor.GREEN,
+            plugin.removeAnnouncement(arguments.getInt(0))));
 
-            return true;
+        return true;
+    }
+
+    /**
+     * Called when user uses the /announce interval command.
+     *
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
+     * @return true if a valid command, otherwise false
+     */
+    boolean onIntervalCommand(CommandSender sender, Subcommand.Values arguments) {
+        if (arguments.has(0)) {
+            plugin.setAnnouncementInterval(arguments.getInt(0));
+            sender.sendMessage(ChatColor.GREEN + "Set interval of scheduled announcements successfully!");
         } else {
-            return false;
+            sender.sendMessage(String.format("%sPeriod duration is %d", ChatColor.LIGHT_PURPLE,
+                plugin.getAnnouncementInterval()));
         }
+
+        return true;
     }
 
     /**
-     * Called when user uses the /announce delete command.
+     * Called when user uses the /announce prefix command.
      *
-     * @param sender  the sender. (In most case a player.)
-     * @param command the command send.
-     * @param label   the label used for the command
-     * @param args    the arguments.
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
      * @return true if a valid command, otherwise false
      */
-    boolean onDeleteCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (sender.hasPermission(AnnouncerPermissions.DELETE)) {
-            if (args.length == 2) {
-                try {
-                    int index = Integer.parseInt(args[1]);
-
-                    if (index > 0 && index <= plugin.numberOfAnnouncements()) {
-                        sender.sendMessage(String.format("%sRemoved announcement: '%s'", ChatColor.GREEN,
-                            plugin.getAnnouncement(index)));
-                        plugin.removeAnnouncement(index);
-                    } else {
-                        sender.sendMessage(
-                            ChatColor.RED + "There isn't any announcement with the passed index!");
-                        sender.sendMessage(
-                            ChatColor.RED + "Use '/announce list' to view all available announcements.");
-                    }
-                } catch (NumberFormatException e) {
-                    sender.sendMessage(ChatColor.RED + "Index must be a integer!");
-                }
-            } else {
-                sender.sendMessage(ChatColor.RED + "Too many arguments! Use '/announce help' to view the help.");
-            }
-
-            return true;
+    boolean onPrefixCommand(CommandSender sender, Subcommand.Values arguments) {
+        if (arguments.has(0)) {
+            plugin.setAnnouncementPrefix(arguments.getString(0));
+            sender.sendMessage(ChatColor.GREEN + "Set prefix for all announcements successfully!");
         } else {
-            return false;
+            sender.sendMessage(String.format("%sPrefix is %s", ChatColor.LIGHT_PURPLE,
+                ChatColorHelper.replaceColorCodes(plugin.getAnnouncementPrefix())));
         }
+
+        return true;
     }
 
     /**
-     * Called when user uses the /announce interval command.
+     * Called when user uses the /announce random command.
      *
-     * @param sender  the sender. (In most case a player.)
-     * @param command the command send.
-     * @param label   the label used for the command
-     * @param args    the arguments.
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
      * @return true if a valid command, otherwise false
      */
-    boolean onIntervalCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (sender.hasPermission(AnnouncerPermissions.MODERATOR)) {
-            if (args.length == 2) {
-                try {
-                    plugin.setAnnouncementInterval(Integer.parseInt(args[1]));
-
-                    sender.sendMessage(
-                        ChatColor.GREEN + "Set interval of scheduled announcements successfully!");
-                } catch (NumberFormatException e) {
-                    sender.sendMessage(ChatColor.RED + "Interval must be a number!");
-                } catch (ArithmeticException e) {
-                    sender.sendMessage(ChatColor.RED + "Interval must be greater than 0!");
-                }
-            } else if (args.length == 1) {
-                sender.sendMessage(String.format("%sPeriod duration is %d", ChatColor.LIGHT_PURPLE,
-                    plugin.getAnnouncementInterval()));
-            } else {
-                sender.sendMessage(
-                    ChatColor.RED + "Too many arguments! Use '/announce help' to view the help!");
-            }
+    boolean onRandomCommand(CommandSender sender, Subcommand.Values arguments) {
+        if (arguments.has(0)) {
+            plugin.setRandom(arguments.getBoolean(0));
+            sender.sendMessage(ChatColor.GREEN + (arguments.getBoolean(0) ? "Random mode enabled!" :
+                "Sequential mode enabled!"));
+        } else if (plugin.isRandom()) {
+            sender.sendMessage(ChatColor.LIGHT_PURPLE + "Random mode is enabled.");
+        } else {
+            sender.sendMessage(ChatColor.LIGHT_PURPLE + "Sequential mode is enabled.");
+        }
 
-            return true;
+        return true;
+    }
+
+    /**
+     * Called when user uses the /announce enable command.
+     *
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
+     * @return true if a valid command, otherwise false
+     */
+    boolean onEnableCommand(CommandSender sender, Subcommand.Values arguments) {
+        if (arguments.has(0)) {
+            plugin.setAnnouncerEnabled(arguments.getBoolean(0));
+            sender.sendMessage(ChatColor.GREEN + (arguments.getBoolean(0) ? "Announcer enabled!" :
+                "Announcer disabled!"));
+        } else if (plugin.isAnnouncerEnabled()) {
+            sender.sendMessage(ChatColor.LIGHT_PURPLE + "Announcer is enabled.");
         } else {
-            return false;
+            sender.sendMessage(ChatColor.LIGHT_PURPLE + "Announcer is disabled.");
         }
+
+        return true;
     }
 
     /**
-     * Called when user uses the /announce prefix command.
+     * Called when user uses the /announce reload command.
      *
-     * @param sender  the sender. (In most case a player.)
-     * @param command the command send.
-     * @param label   the label used for the command
-     * @param args    the arguments.
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
      * @return true if a valid command, otherwise false
      */
-    boolean onPrefixCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (sender.hasPermission(AnnouncerPermissions.MODERATOR)) {
-            if (args.length > 1) {
-                StringBuilder prefixBuilder = new StringBuilder();
-                for (int index = 1; index < args.length; ++index) {
-                    prefixBuilder.append(args[index]);
-                    prefixBuilder.append(" ");
-                }
-                plugin.setAnnouncementPrefix(prefixBuilder.toString());
+    boolean onReloadCommand(CommandSender sender, Subcommand.Values arguments) {
+        plugin.reloadConfiguration();
+        sender.sendMessage(ChatColor.LIGHT_PURPLE + "Configuration reloaded.");
 
-                sender.sendMessage(ChatColor.GREEN + "Set prefix for all announcements successfully!");
-            } else {
-                sender.sendMessage(String.format("%sPrefix is %s", ChatColor.LIGHT_PURPLE,
-                    ChatColorHelper.replaceColorCodes(plugin.getAnnouncementPrefix())));
-            }
+        return true;
+    }
 
-            return true;
-        } else {
-            return false;
+    /**
+     * Called when user uses the /announce pacing command.
+     *
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
+     * @return true if a valid command, otherwise false
+     */
+    boolean onPacingCommand(CommandSender sender, Subcommand.Values arguments) {
+        AnnouncementPacer pacer = plugin.getAnnouncementPacer();
+        sender.sendMessage(String.format("%sAverage tick interval is %.1f ms (threshold %.1f ms, " +
+            "max delay %d seconds).", ChatColor.LIGHT_PURPLE, pacer.getAverageTickMillis(),
+            plugin.getPacingThreshold(), plugin.getPacingMaxDelay()));
+        sender.sendMessage(String.format("%sDeferred announcements: %d (%d after recovery, %d at max delay)",
+            ChatColor.LIGHT_PURPLE, pacer.getDeferredAnnouncements(), pacer.getRecoveredAnnouncements(),
+            pacer.getForcedAnnouncements()));
+        if (pacer.isDeferring()) {
+            sender.sendMessage(ChatColor.YELLOW + "The next announcement is deferred right now.");
         }
+
+        return true;
     }
 
     /**
-     * Called when user uses the /announce random command.
+     * Called when user uses the /announce memory command.
      *
-     * @param sender  the sender. (In most case a player.)
-     * @param command the command send.
-     * @param label   the label used for the command
-     * @param args    the arguments.
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
      * @return true if a valid command, otherwise false
      */
-    boolean onRandomCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (sender.hasPermission(AnnouncerPermissions.MODERATOR)) {
-            if (args.length == 2) {
-                if ("true".equalsIgnoreCase(args[1])) {
-                    plugin.setRandom(true);
-                    sender.sendMessage(ChatColor.GREEN + "Random mode enabled!");
-                } else if ("false".equalsIgnoreCase(args[1])) {
-                    plugin.setRandom(false);
-                    sender.sendMessage(ChatColor.GREEN + "Sequential mode enabled!");
-                } else {
-                    sender.sendMessage(ChatColor.RED + "Use true or false to enable or disable! " +
-                        "Use '/announce help' to view the help.");
-                }
-            } else if (args.length == 1) {
-                if (plugin.isRandom()) {
-                    sender.sendMessage(ChatColor.LIGHT_PURPLE + "Random mode is enabled.");
-                } else {
-                    sender.sendMessage(ChatColor.LIGHT_PURPLE + "Sequential mode is enabled.");
+    boolean onMemoryCommand(CommandSender sender, Subcommand.Values arguments) {
+        AnnouncementRenderer renderer = plugin.getAnnouncementRenderer();
+
+        if (!arguments.has(0)) {
+            AnnouncementRenderer.Usage usage = renderer.getUsage();
+            sender.sendMessage(String.format("%sAnnouncements: %d (%d distinct), references: %d (%d pooled strings)",
+                ChatColor.LIGHT_PURPLE, usage.announcements, usage.distinct, usage.references, usage.pooled));
+            sender.sendMessage(String.format("%sPooled: %.1f KB (raw text %.1f KB, rendered %.1f KB), " +
+                "without pooling: %.1f KB", ChatColor.LIGHT_PURPLE, usage.pooledBytes / 1024.0,
+                usage.rawBytes / 1024.0, (usage.pooledBytes - usage.rawBytes) / 1024.0,
+                usage.unpooledBytes / 1024.0));
+            sender.sendMessage(String.format("%sPlain list of the raw text: %.1f KB, per announcement: %d bytes",
+                ChatColor.LIGHT_PURPLE, usage.plainBytes / 1024.0,
+                usage.announcements > 0 ? usage.pooledBytes / usage.announcements : 0));
+        } else {
+            int index = arguments.getInt(0);
+            String line = plugin.getAnnouncement(index);
+            AnnouncementRenderer.Rendered rendered = renderer.render(line);
+
+            long bytes = SegmentPool.estimateBytes(line);
+            int shared = 0;
+            for (String segment : rendered.segments) {
+                bytes += SegmentPool.estimateBytes(segment);
+                if (renderer.referencesOf(segment) > 1) {
+                    ++shared;
                 }
-            } else {
-                sender.sendMessage(
-                    ChatColor.RED + "Invalid number of arguments! Use '/announce help' to view the help.");
             }
-
-            return true;
-        } else {
-            return false;
+            sender.sendMessage(String.format("%sAnnouncement %d: used %d times, %d segments (%d shared), %d bytes",
+                ChatColor.LIGHT_PURPLE, index, renderer.occurrencesOf(line), rendered.segments.length, shared,
+                bytes));
         }
+
+        return true;
     }
 
     /**
-     * Called when user uses the /announce enable command.
+     * Called when user uses the /announce import command.
      *
-     * @param sender  the sender. (In most case a player.)
-     * @param command the command send.
-     * @param label   the label used for the command
-     * @param args    the arguments.
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
      * @return true if a valid command, otherwise false
      */
-    boolean onEnableCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (sender.hasPermission(AnnouncerPermissions.MODERATOR)) {
-            if (args.length == 2) {
-                if ("true".equalsIgnoreCase(args[1])) {
-                    plugin.setAnnouncerEnabled(true);
-                    sender.sendMessage(ChatColor.GREEN + "Announcer enabled!");
-                } else if ("false".equalsIgnoreCase(args[1])) {
-                    plugin.setAnnouncerEnabled(false);
-                    sender.sendMessage(ChatColor.GREEN + "Announcer disabled!");
-                } else {
-                    sender.sendMessage(ChatColor.RED + "Use ture or false to enable or disable! " +
-                        "Use '/announce help' to view the help.");
-                }
-            } else if (args.length == 1) {
-                if (plugin.isRandom()) {
-                    sender.sendMessage(ChatColor.LIGHT_PURPLE + "Announcer is enabled.");
-                } else {
-                    sender.sendMessage(ChatColor.LIGHT_PURPLE + "Announcer is disabled.");
-                }
+    boolean onImportCommand(CommandSender sender, Subcommand.Values arguments) {
+        File file = resolveTransferFile(sender, arguments.getString(0));
+        if (file != null) {
+            if (file.isFile()) {
+                sender.sendMessage(ChatColor.LIGHT_PURPLE + "Importing announcements...");
+                transfer.importFrom(sender, file);
             } else {
-                sender.sendMessage(
-                    ChatColor.RED + "Invalid number of arguments! Use '/announce help' to view the help.");
+                sender.sendMessage(ChatColor.RED + "There isn't any file with the passed name!");
             }
-
-            return true;
-        } else {
-            return false;
         }
+
+        return true;
     }
 
     /**
-     * Called when user uses the /announce reload command.
+     * Called when user uses the /announce export command.
      *
-     * @param sender  the sender. (In most case a player.)
-     * @param command the command send.
-     * @param label   the label used for the command
-     * @param args    the arguments.
+     * @param sender    the sender. (In most case a player.)
+     * @param arguments the parsed arguments.
      * @return true if a valid command, otherwise false
      */
-    boolean onReloadCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (sender.hasPermission(AnnouncerPermissions.MODERATOR)) {
-            if (args.length == 1) {
-                plugin.reloadConfiguration();
-                sender.sendMessage(ChatColor.LIGHT_PURPLE + "Configuration reloaded.");
-            } else {
-                sender.sendMessage(ChatColor.RED + "Any arguments needed! Use '/announce help' to view the help.");
+    boolean onExportCommand(CommandSender sender, Subcommand.Values arguments) {
+        File file = resolveTransferFile(sender, arguments.getString(0));
+        if (file != null) {
+            sender.sendMessage(ChatColor.LIGHT_PURPLE + "Exporting announcements...");
+            transfer.exportTo(sender, file, arguments.getBoolean(1));
+        }
+
+        return true;
+    }
+
+    /**
+     * Resolves the file name passed to import or export.
+     *
+     * @param sender the sender, which gets informed about invalid names.
+     * @param name   the passed file name.
+     * @return the file in the data folder or null if the name is invalid.
+     */
+    private File resolveTransferFile(CommandSender sender, String name) {
+        try {
+            File file = transfer.resolve(name);
+            if (file == null) {
+                sender.sendMessage(ChatColor.RED + "Only .txt, .json and .jsonl files inside the plugin folder " +
+                    "are allowed!");
             }
-            return true;
-        } else {
-            return false;
+            return file;
+        } catch (IOException e) {
+            sender.sendMessage(ChatColor.RED + "Invalid file name!");
+            return null;
         }
     }
 }
@@ -14,11 +14,27 @@
 
 package at.co.hohl.Announcer;
 
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitScheduler;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
@@ -27,36 +43,111 @@ import java.util.logging.Logger;
  * @author MiHo
  */
 public class AnnouncerPlugin extends JavaPlugin {
+    /**
+     * Name of the configuration file.
+     */
+    private static final String CONFIG_FILE = "config.yml";
+
+    /**
+     * Name of the binary snapshot of the configuration, stored next to the config.yml.
+     */
+    private static final String SNAPSHOT_FILE = "config.bin";
+
+    /**
+     * Ticks between two full recalculations of the audiences.
+     */
+    private static final long AUDIENCE_REFRESH_TICKS = 30 * 20;
+
     /**
      * Messages to be announced.
      */
-    protected List<String> announcementMessages;
+    protected final AnnouncementLibrary announcementLibrary;
 
     /**
      * The tag used for the broadcast.
      */
-    protected String announcementPrefix;
+    protected volatile String announcementPrefix;
 
     /**
      * Period used for announcing.
      */
-    protected long announcementInterval;
+    protected volatile long announcementInterval;
 
     /**
      * Flag if the plugin is enabled.
      */
-    protected boolean enabled;
+    protected volatile boolean enabled;
 
     /**
      * Flag if the plugin should output the announcements randomly.
      */
-    protected boolean random;
+    protected volatile boolean random;
+
+    /**
+     * Average tick interval in milliseconds, above which announcements get deferred.
+     */
+    protected volatile double pacingThreshold;
+
+    /**
+     * Maximum time in seconds an announcement gets deferred while the server is lagging.
+     */
+    protected volatile long pacingMaxDelay;
+
+    /**
+     * Minimum time in seconds between two announcements.
+     */
+    protected volatile long minimumGap;
 
     /**
      * Thread used to announcing.
      */
     private AnnouncerThread announcerThread;
 
+    /**
+     * Task which starts the scheduled announcements, depending on the server load.
+     */
+    private AnnouncementPacer announcementPacer;
+
+    /**
+     * Keeps track of the members of all audiences.
+     */
+    private final AudienceManager audienceManager;
+
+    /**
+     * Lower case names of the unknown audiences which were already reported.
+     */
+    private final ConcurrentMap<String, Boolean> reportedAudiences = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Announcements pushed by other plugins, waiting for delivery on the main thread.
+     */
+    private final AnnouncementQueue announcementQueue;
+
+    /**
+     * Orders and paces the delivery of all announcements.
+     */
+    private final DeliveryQueue deliveryQueue;
+
+    /**
+     * Renders the announcements and keeps them and their segments in a shared pool.
+     */
+    private final AnnouncementRenderer announcementRenderer;
+
+    /**
+     * Number of writes of the config.yml, used to detect snapshots which are outdated before they are written.
+     */
+    private final AtomicLong configGeneration = new AtomicLong();
+
+    /**
+     * Serializes the asynchronous writes of the snapshot.
+     */
+    private final Object snapshotLock = new Object();
+
+    /**
+     * Generation of the config.yml the last written snapshot belongs to. Guarded by the snapshot lock.
+     */
+    private long snapshotGeneration = -1;
+
     /**
      * The logger used to output logging information.
      */
@@ -70,6 +161,11 @@ public class AnnouncerPlugin extends JavaPlugin {
         super();
 
         announcerThread = new AnnouncerThread(this);
+        audienceManager = new AudienceManager(this);
+        announcementQueue = new AnnouncementQueue(this);
+        deliveryQueue = new DeliveryQueue(this);
+        announcementRenderer = new AnnouncementRenderer();
+        announcementLibrary = new AnnouncementLibrary(announcementRenderer);
     }
 
     /**
@@ -79,22 +175,35 @@ public class AnnouncerPlugin extends JavaPlugin {
         logger = getServer().getLogger();
 
         // Create default config if not exist yet.
-        if (!new File(getDataFolder(), "config.yml").exists()) {
+        if (!new File(getDataFolder(), CONFIG_FILE).exists()) {
             saveDefaultConfig();
         }
 
         // Load configuration.
-        reloadConfiguration();
+        loadConfiguration();
+        announcementQueue.open();
 
         // Register the schedule.
+        announcementPacer = new AnnouncementPacer(this, announcerThread);
         BukkitScheduler scheduler = getServer().getScheduler();
-        scheduler
-            .scheduleSyncRepeatingTask(this, announcerThread, announcementInterval * 20, announcementInterval * 20);
+        scheduler.scheduleSyncRepeatingTask(this, announcementPacer, 1, 1);
+        scheduler.scheduleSyncRepeatingTask(this, announcementQueue, 1, 1);
+        scheduler.scheduleSyncRepeatingTask(this, deliveryQueue, 1, 1);
+
+        // Keep the audiences up to date. (There is no event for permission changes.)
+        getServer().getPluginManager().registerEvents(audienceManager, this);
+        scheduler.scheduleSyncRepeatingTask(this, new Runnable() {
+            public void run() {
+                audienceManager.refreshAll();
+            }
+        }, AUDIENCE_REFRESH_TICKS, AUDIENCE_REFRESH_TICKS);
 
         // Register command executor.
         AnnouncerCommandExecutor announcerCommandExecutor = new AnnouncerCommandExecutor(this);
         getCommand("announce").setExecutor(announcerCommandExecutor);
         getCommand("announcer").setExecutor(announcerCommandExecutor);
+        registerTabCompleter(getCommand("announce"), announcerCommandExecutor);
+        registerTabCompleter(getCommand("announcer"), announcerCommandExecutor);
 
         // Logging.
         logger.info(String.format("%s is enabled!\n", getDescription().getFullName()));
@@ -104,67 +213,289 @@ public class AnnouncerPlugin extends JavaPlugin {
      * Called when disabling the plugin.
      */
     public void onDisable() {
+        // Pending announcements won't be delivered anymore.
+        announcementQueue.close();
+        deliveryQueue.clear();
+
         // Logging.
         logger.info(String.format("%s is disabled!\n", getDescription().getFullName()));
     }
 
     /**
-     * Broadcasts an announcement.
+     * Queues the next scheduled announcement for broadcasting.
      */
     public void announce() {
-        announcerThread.run();
+        announcerThread.queueNextAnnouncement(AnnouncementPriority.NORMAL);
     }
 
     /**
-     * Broadcasts an announcement.
+     * Queues an announcement for broadcasting.
      *
      * @param index 1 based index. (Like in the list output.)
      */
     public void announce(int index) {
-        announce(announcementMessages.get(index - 1));
+        announce(index, AnnouncementPriority.NORMAL);
+    }
+
+    /**
+     * Queues an announcement for broadcasting.
+     *
+     * @param index    1 based index. (Like in the list output.)
+     * @param priority the priority of the announcement.
+     */
+    public void announce(int index, AnnouncementPriority priority) {
+        deliveryQueue.add(getAnnouncement(index), priority);
     }
 
     /**
-     * Broadcasts an announcement.
+     * Enqueues an announcement, which gets delivered on the main thread within the next ticks. Safe to call from any
+     * thread.
+     *
+     * @param line the messages to promote.
+     * @return future which is done as soon as the announcement was delivered.
+     * @throws IllegalStateException if there are too many pending announcements or the plugin is disabled.
+     */
+    public Future<Void> enqueueAnnouncement(String line) {
+        return announcementQueue.enqueue(line, AnnouncementPriority.NORMAL, false);
+    }
+
+    /**
+     * Enqueues an announcement, which gets delivered on the main thread within the next ticks. Safe to call from any
+     * thread.
+     *
+     * @param line        the messages to promote.
+     * @param priority    the priority of the announcement.
+     * @param deduplicate if true, an identical announcement which is still pending is not queued twice. The pending
+     *                    one gets the higher of both priorities.
+     * @return future which is done as soon as the announcement was delivered.
+     * @throws IllegalStateException if there are too many pending announcements or the plugin is disabled.
+     */
+    public Future<Void> enqueueAnnouncement(String line, AnnouncementPriority priority, boolean deduplicate) {
+        return announcementQueue.enqueue(line, priority, deduplicate);
+    }
+
+    /**
+     * Broadcasts an announcement. Lines starting with @audience:&lt;name&gt; are only sent to the members of this
+     * audience. If there isn't any audience with this name, the announcement goes to everybody.
      *
      * @param line the messages to promote.
      */
     public void announce(String line) {
-        String[] messages = line.split("&n");
-        for (String message : messages) {
-            if (message.startsWith("/")) {
+        AnnouncementRenderer.Rendered rendered = announcementRenderer.render(line);
+
+        Player[] recipients = null;
+        if (rendered.audience != null) {
+            if (audienceManager.isDefined(rendered.audience)) {
+                recipients = audienceManager.getRecipients(rendered.audience);
+            } else if (reportedAudiences.putIfAbsent(rendered.audience.toLowerCase(Locale.ENGLISH), true) == null) {
+                logger.warning(String.format("[%s] Unknown audience '%s', announcing to everybody!",
+                    getDescription().getName(), rendered.audience));
+            }
+        }
+
+        boolean anybodyOnline = recipients != null ? recipients.length > 0 : getServer().getOnlinePlayers().length > 0;
+        for (int index = 0; index < rendered.segments.length; ++index) {
+            if (rendered.commands[index]) {
                 // Execute the command, cause it's a command:
-                getServer().dispatchCommand(getServer().getConsoleSender(), message.substring(1));
-            } else if (getServer().getOnlinePlayers().length > 0) {
+                getServer().dispatchCommand(getServer().getConsoleSender(), rendered.segments[index]);
+            } else if (anybodyOnline) {
                 // Broadcast the message only when somebody is online:
-                String messageToSend = ChatColorHelper.replaceColorCodes(String.format("%s%s", announcementPrefix, message));
-                getServer().broadcast(messageToSend, AnnouncerPermissions.RECEIVER);
+                if (recipients == null) {
+                    getServer().broadcast(rendered.segments[index], AnnouncerPermissions.RECEIVER);
+                } else {
+                    for (Player recipient : recipients) {
+                        recipient.sendMessage(rendered.segments[index]);
+                    }
+                }
             }
         }
     }
 
     /**
-     * Saves the announcements.
+     * Saves the announcements. All changes of the configuration are synchronized on the plugin, so changes from
+     * different threads are never lost by a concurrent save or reload.
      */
-    public void saveConfiguration() {
-        getConfig().set("announcement.messages", announcementMessages);
+    public synchronized void saveConfiguration() {
+        getConfig().set("announcement.messages", announcementLibrary.snapshot());
         getConfig().set("announcement.interval", announcementInterval);
         getConfig().set("announcement.prefix", announcementPrefix);
         getConfig().set("announcement.enabled", enabled);
         getConfig().set("announcement.random", random);
+        getConfig().set("announcement.pacing.threshold", pacingThreshold);
+        getConfig().set("announcement.pacing.max-delay", pacingMaxDelay);
+        getConfig().set("announcement.min-gap", minimumGap);
         saveConfig();
+        saveSnapshot();
+    }
+
+    /**
+     * Saves the config.yml. Snapshots which are still being written for an older config.yml get discarded.
+     */
+    @Override
+    public void saveConfig() {
+        configGeneration.incrementAndGet();
+        super.saveConfig();
     }
 
     /**
      * Reloads the configuration.
      */
-    public void reloadConfiguration() {
+    public synchronized void reloadConfiguration() {
         reloadConfig();
         announcementPrefix = getConfig().getString("announcement.prefix", "&c[Announcement] ");
-        announcementMessages = getConfig().getStringList("announcement.messages");
+        announcementRenderer.setPrefix(announcementPrefix);
+        announcementLibrary.replace(getConfig().getStringList("announcement.messages"));
         announcementInterval = getConfig().getInt("announcement.interval", 1000);
         enabled = getConfig().getBoolean("announcement.enabled", true);
         random = getConfig().getBoolean("announcement.random", false);
+        pacingThreshold = getConfig().getDouble("announcement.pacing.threshold", 60);
+        pacingMaxDelay = getConfig().getInt("announcement.pacing.max-delay", 30);
+        minimumGap = getConfig().getInt("announcement.min-gap", 5);
+        audienceManager.setAudiences(loadAudiences());
+        reportedAudiences.clear();
+        saveSnapshot();
+    }
+
+    /**
+     * Loads the configuration from the binary snapshot if it is still up to date, otherwise parses the config.yml.
+     */
+    synchronized void loadConfiguration() {
+        try {
+            long checksum = LibrarySnapshot.checksumOf(new File(getDataFolder(), CONFIG_FILE));
+            LibrarySnapshot snapshot =
+                LibrarySnapshot.read(new File(getDataFolder(), SNAPSHOT_FILE), checksum, getSnapshotVersion());
+            if (snapshot != null) {
+                announcementPrefix = snapshot.prefix;
+                announcementRenderer.setPrefix(announcementPrefix);
+                announcementRenderer.setPrerendered(snapshot.rendered);
+                announcementLibrary.replace(snapshot.messages);
+                announcementInterval = snapshot.interval;
+                enabled = snapshot.enabled;
+                random = snapshot.random;
+                pacingThreshold = snapshot.pacingThreshold;
+                pacingMaxDelay = snapshot.pacingMaxDelay;
+                minimumGap = snapshot.minimumGap;
+                audienceManager.setAudiences(snapshot.audiences);
+                return;
+            }
+        } catch (IOException e) {
+            logger.warning(String.format("[%s] Could not read %s: %s", getDescription().getName(), SNAPSHOT_FILE,
+                e.getMessage()));
+        }
+
+        reloadConfiguration();
+    }
+
+    /**
+     * Registers the tab completion of the executor. Tab completion is only available on servers which know Bukkit's
+     * TabCompleter, so it is looked up by reflection to keep older servers supported.
+     *
+     * @param command  the command to complete.
+     * @param executor the executor which provides the completions.
+     */
+    private void registerTabCompleter(PluginCommand command, final AnnouncerCommandExecutor executor) {
+        Class<?> completerClass;
+        try {
+            completerClass = Class.forName("org.bukkit.command.TabCompleter");
+        } catch (ClassNotFoundException e) {
+            return;
+        }
+
+        Object completer = Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{completerClass},
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("onTabComplete".equals(method.getName())) {
+                        return executor.onTabComplete((CommandSender) args[0], (Command) args[1], (String) args[2],
+                            (String[]) args[3]);
+                    } else if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    } else if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    } else {
+                        return executor.toString();
+                    }
+                }
+            });
+
+        try {
+            command.getClass().getMethod("setTabCompleter", completerClass).invoke(command, completer);
+        } catch (Exception e) {
+            logger.warning(String.format("[%s] Could not register tab completion: %s", getDescription().getName(),
+                e.getMessage()));
+        }
+    }
+
+    /**
+     * Reads the audience definitions from the configuration.
+     *
+     * @return the defined audiences.
+     */
+    private List<Audience> loadAudiences() {
+        List<Audience> audiences = new ArrayList<Audience>();
+        ConfigurationSection section = getConfig().getConfigurationSection("announcement.audiences");
+        if (section != null) {
+            for (String name : section.getKeys(false)) {
+                audiences.add(new Audience(name, section.getString(name + ".world"),
+                    section.getString(name + ".permission"), section.getString(name + ".tag")));
+            }
+        }
+        return audiences;
+    }
+
+    /**
+     * @return the versions of the plugin and the server, which the rendered announcements of the snapshot depend on.
+     */
+    private String getSnapshotVersion() {
+        return getDescription().getVersion() + " on " + getServer().getVersion();
+    }
+
+    /**
+     * Writes the binary snapshot of the current configuration, keyed by the checksum of the config.yml and the versions
+     * of the plugin and the server. The configuration is copied on the calling thread, reading the config.yml and
+     * writing the snapshot is done by an asynchronous task.
+     */
+    private void saveSnapshot() {
+        final long generation = configGeneration.get();
+        List<String> messages = announcementLibrary.snapshot();
+        final LibrarySnapshot snapshot = new LibrarySnapshot(0, getSnapshotVersion(), announcementPrefix,
+            announcementInterval, enabled, random, pacingThreshold, pacingMaxDelay, minimumGap,
+            audienceManager.getAudiences(), messages, announcementRenderer.renderAll(messages));
+
+        getServer().getScheduler().scheduleAsyncDelayedTask(this, new Runnable() {
+            public void run() {
+                writeSnapshot(generation, snapshot);
+            }
+        });
+    }
+
+    /**
+     * Writes the snapshot, unless a newer one was written already or the config.yml changed in the meantime.
+     *
+     * @param generation the generation of the config.yml the snapshot was copied from.
+     * @param snapshot   the copied configuration, without checksum yet.
+     */
+    private void writeSnapshot(long generation, LibrarySnapshot snapshot) {
+        File snapshotFile = new File(getDataFolder(), SNAPSHOT_FILE);
+        synchronized (snapshotLock) {
+            if (generation < snapshotGeneration) {
+                return;
+            }
+
+            try {
+                long checksum = LibrarySnapshot.checksumOf(new File(getDataFolder(), CONFIG_FILE));
+                // A newer config.yml might have been saved in the meantime, its own snapshot is written later.
+                if (generation != configGeneration.get()) {
+                    return;
+                }
+
+                snapshot.withChecksum(checksum).write(snapshotFile);
+                snapshotGeneration = generation;
+            } catch (IOException e) {
+                snapshotFile.delete();
+                logger.warning(String.format("[%s] Could not write %s: %s", getDescription().getName(),
+                    SNAPSHOT_FILE, e.getMessage()));
+            }
+        }
     }
 
     /**
@@ -179,8 +510,9 @@ public class AnnouncerPlugin extends JavaPlugin {
      *
      * @param announcementPrefix the prefix to use for all announcements.
      */
-    public void setAnnouncementPrefix(String announcementPrefix) {
+    public synchronized void setAnnouncementPrefix(String announcementPrefix) {
         this.announcementPrefix = announcementPrefix;
+        announcementRenderer.setPrefix(announcementPrefix);
         saveConfig();
     }
 
@@ -196,15 +528,65 @@ public class AnnouncerPlugin extends JavaPlugin {
      *
      * @param announcementInterval the period to set.
      */
-    public void setAnnouncementInterval(long announcementInterval) {
+    public synchronized void setAnnouncementInterval(long announcementInterval) {
+        if (announcementInterval <= 0) {
+            throw new ArithmeticException("Interval must be greater than 0!");
+        }
+
         this.announcementInterval = announcementInterval;
         saveConfiguration();
 
-        // Register the schedule
-        BukkitScheduler scheduler = getServer().getScheduler();
-        scheduler.cancelTasks(this);
-        scheduler
-            .scheduleSyncRepeatingTask(this, announcerThread, announcementInterval * 20, announcementInterval * 20);
+        // Restart the schedule
+        announcementPacer.restart();
+    }
+
+    /**
+     * @return average tick interval in milliseconds, above which announcements get deferred.
+     */
+    public double getPacingThreshold() {
+        return pacingThreshold;
+    }
+
+    /**
+     * @return maximum time in seconds an announcement gets deferred while the server is lagging.
+     */
+    public long getPacingMaxDelay() {
+        return pacingMaxDelay;
+    }
+
+    /**
+     * @return minimum time in seconds between two announcements.
+     */
+    public long getMinimumGap() {
+        return minimumGap;
+    }
+
+    /**
+     * @return the task which starts the scheduled announcements.
+     */
+    AnnouncementPacer getAnnouncementPacer() {
+        return announcementPacer;
+    }
+
+    /**
+     * @return the thread which selects the scheduled announcements.
+     */
+    AnnouncerThread getAnnouncerThread() {
+        return announcerThread;
+    }
+
+    /**
+     * @return the renderer, which keeps all announcements and their segments.
+     */
+    AnnouncementRenderer getAnnouncementRenderer() {
+        return announcementRenderer;
+    }
+
+    /**
+     * @return the queue which orders and paces the delivery of all announcements.
+     */
+    DeliveryQueue getDeliveryQueue() {
+        return deliveryQueue;
     }
 
     /**
@@ -212,8 +594,18 @@ public class AnnouncerPlugin extends JavaPlugin {
      *
      * @param message the message to announce.
      */
-    public void addAnnouncement(String message) {
-        announcementMessages.add(message);
+    public synchronized void addAnnouncement(String message) {
+        announcementLibrary.add(message);
+        saveConfiguration();
+    }
+
+    /**
+     * Adds all passed announcements with a single update and a single save.
+     *
+     * @param messages the messages to announce.
+     */
+    public synchronized void addAnnouncements(Collection<String> messages) {
+        announcementLibrary.addAll(messages);
         saveConfiguration();
     }
 
@@ -224,21 +616,28 @@ public class AnnouncerPlugin extends JavaPlugin {
      * @return the announcement string.
      */
     public String getAnnouncement(int index) {
-        return announcementMessages.get(index - 1);
+        return announcementLibrary.snapshot().get(index - 1);
+    }
+
+    /**
+     * @return unmodifiable snapshot of all announcements. Later changes are not reflected by the returned list.
+     */
+    public List<String> getAnnouncements() {
+        return announcementLibrary.snapshot();
     }
 
     /**
      * @return the number of announcements.
      */
     public int numberOfAnnouncements() {
-        return announcementMessages.size();
+        return announcementLibrary.size();
     }
 
     /**
      * Removes all announcements.
      */
-    public void removeAnnouncements() {
-        announcementMessages.clear();
+    public synchronized void removeAnnouncements() {
+        announcementLibrary.clear();
         saveConfiguration();
     }
 
@@ -246,10 +645,24 @@ public class AnnouncerPlugin extends JavaPlugin {
      * Removes the announcement with the passed index.
      *
      * @param index the index which selects the announcement to remove.
+     * @return the removed announcement.
      */
-    public void removeAnnouncement(int index) {
-        announcementMessages.remove(index - 1);
+    public synchronized String removeAnnouncement(int index) {
+        String removed = announcerThread.removeAnnouncement(announcementLibrary, index - 1);
         saveConfiguration();
+        return removed;
+    }
+
+    /**
+     * Adds or removes a tag of a player. Audiences can select their members by tag. Tags are dropped when the player
+     * leaves the server.
+     *
+     * @param player the player to tag.
+     * @param tag    the tag.
+     * @param tagged true to add the tag, false to remove it.
+     */
+    public void setAudienceTag(Player player, String tag, boolean tagged) {
+        audienceManager.setTag(player, tag, tagged);
     }
 
     /**
@@ -263,7 +676,7 @@ public class AnnouncerPlugin extends JavaPlugin {
         return enabled;
     }
 
-    public void setAnnouncerEnabled(boolean enabled) {
+    public synchronized void setAnnouncerEnabled(boolean enabled) {
         this.enabled = enabled;
         saveConfiguration();
     }
@@ -272,7 +685,7 @@ public class AnnouncerPlugin extends JavaPlugin {
         return random;
     }
 
-    public void setRandom(boolean random) {
+    public synchronized void setRandom(boolean random) {
         this.random = random;
         saveConfiguration();
     }
@@ -14,10 +14,12 @@
 
 package at.co.hohl.Announcer;
 
+import java.util.List;
 import java.util.Random;
 
 /**
- * Thread which handles the announcing.
+ * Thread which handles the announcing. Thread-safe, selecting the next announcement and moving the position on
+ * removals are serialized, so the sequential order holds even if the library is changed from other threads.
  *
  * @author MiHo
  */
@@ -47,22 +49,65 @@ class AnnouncerThread extends Thread {
     }
 
     /**
-     * The main method of the thread.
+     * The main method of the thread. Queues the next scheduled announcement, unless the last one is still waiting.
      */
     @Override
-    public void run() {
-        if (plugin.isAnnouncerEnabled()) {
+    public synchronized void run() {
+        if (!plugin.getDeliveryQueue().hasWaiting(AnnouncementPriority.ROUTINE)) {
+            queueNextAnnouncement(AnnouncementPriority.ROUTINE);
+        }
+    }
+
+    /**
+     * Selects the next announcement and queues it for delivery. Concurrent calls queue the announcements in the order
+     * they were selected.
+     *
+     * @param priority the priority of the announcement.
+     */
+    synchronized void queueNextAnnouncement(AnnouncementPriority priority) {
+        String announcement = nextAnnouncement();
+        if (announcement != null) {
+            plugin.getDeliveryQueue().add(announcement, priority);
+        }
+    }
+
+    /**
+     * Removes an announcement from the library and keeps the sequential order, so no announcement is skipped or
+     * repeated in this cycle.
+     *
+     * @param library the library to remove the announcement from.
+     * @param index   0 based index of the announcement.
+     * @return the removed announcement.
+     * @throws IndexOutOfBoundsException if there is no announcement with the passed index.
+     */
+    synchronized String removeAnnouncement(AnnouncementLibrary library, int index) {
+        String removed = library.remove(index);
+        if (index <= lastAnnouncement) {
+            --lastAnnouncement;
+        }
+        return removed;
+    }
+
+    /**
+     * Selects the next announcement, depending on the random mode.
+     *
+     * @return the next announcement or null if the announcer is disabled or there aren't any announcements.
+     */
+    synchronized String nextAnnouncement() {
+        List<String> announcements = plugin.getAnnouncements();
+
+        if (plugin.isAnnouncerEnabled() && !announcements.isEmpty()) {
             if (plugin.isRandom()) {
-                lastAnnouncement = Math.abs(randomGenerator.nextInt() % plugin.numberOfAnnouncements());
+                lastAnnouncement = randomGenerator.nextInt(announcements.size());
             } else {
-                if ((++lastAnnouncement) >= plugin.numberOfAnnouncements()) {
+                if ((++lastAnnouncement) >= announcements.size()) {
                     lastAnnouncement = 0;
                 }
             }
 
-            if (lastAnnouncement < plugin.numberOfAnnouncements()) {
-                plugin.announce(lastAnnouncement + 1);
-            }
+            return announcements.get(lastAnnouncement);
         }
+
+        return null;
     }
 }
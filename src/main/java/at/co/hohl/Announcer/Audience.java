@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import org.bukkit.entity.Player;
+
+import java.util.Set;
+
+/**
+ * Definition of an audience for targeted announcements. A player belongs to an audience, if the player matches all
+ * of the defined criteria.
+ *
+ * @author MiHo
+ */
+final class Audience {
+    /**
+     * The name used to address the audience.
+     */
+    final String name;
+
+    /**
+     * Name of the world the players need to be in, or null.
+     */
+    final String world;
+
+    /**
+     * Permission the players need to have, or null.
+     */
+    final String permission;
+
+    /**
+     * Tag the players need to have, or null.
+     */
+    final String tag;
+
+    /**
+     * Allocates a new audience.
+     *
+     * @param name       the name of the audience.
+     * @param world      name of the world the players need to be in, or null.
+     * @param permission permission the players need to have, or null.
+     * @param tag        tag the players need to have, or null.
+     */
+    Audience(String name, String world, String permission, String tag) {
+        this.name = name;
+        this.world = world;
+        this.permission = permission;
+        this.tag = tag;
+    }
+
+    /**
+     * Checks if the player belongs to this audience.
+     *
+     * @param player the player to check.
+     * @param tags   the tags of the player.
+     * @return true if the player belongs to this audience.
+     */
+    boolean matches(Player player, Set<String> tags) {
+        if (!player.hasPermission(AnnouncerPermissions.RECEIVER)) {
+            return false;
+        }
+        if (world != null && !world.equalsIgnoreCase(player.getWorld().getName())) {
+            return false;
+        }
+        if (permission != null && !player.hasPermission(permission)) {
+            return false;
+        }
+        return tag == null || tags.contains(tag);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the members of all audiences up to date, so announcing to an audience doesn't need to check any player. The
+ * members are updated on join, quit and world change. Bukkit has no event for permission changes, so the plugin
+ * calls {@link #refreshAll()} periodically too. Thread-safe, the audiences might get reloaded from any thread.
+ *
+ * @author MiHo
+ */
+class AudienceManager implements Listener {
+    /**
+     * Empty array returned for unknown audiences.
+     */
+    private static final Player[] NO_PLAYERS = new Player[0];
+
+    /**
+     * The defined audiences by lower case name.
+     */
+    private final Map<String, Audience> audiences = new LinkedHashMap<String, Audience>();
+
+    /**
+     * The current members by lower case audience name.
+     */
+    private final Map<String, Set<Player>> members = new HashMap<String, Set<Player>>();
+
+    /**
+     * Cached arrays of the members, removed whenever the members of an audience change.
+     */
+    private final Map<String, Player[]> recipients = new HashMap<String, Player[]>();
+
+    /**
+     * The tags of the online players by player name.
+     */
+    private final Map<String, Set<String>> tags = new HashMap<String, Set<String>>();
+
+    /**
+     * The plugin which holds this manager.
+     */
+    private final AnnouncerPlugin plugin;
+
+    /**
+     * Allocates a new AudienceManager.
+     *
+     * @param plugin the plugin which holds this manager.
+     */
+    AudienceManager(AnnouncerPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Replaces the audience definitions and recalculates the members.
+     *
+     * @param definitions the new audiences.
+     */
+    synchronized void setAudiences(Collection<Audience> definitions) {
+        audiences.clear();
+        for (Audience audience : definitions) {
+            audiences.put(audience.name.toLowerCase(Locale.ENGLISH), audience);
+        }
+        refreshAll();
+    }
+
+    /**
+     * @return a copy of all defined audiences.
+     */
+    synchronized Collection<Audience> getAudiences() {
+        return new ArrayList<Audience>(audiences.values());
+    }
+
+    /**
+     * @param name the name of the audience.
+     * @return true if there is an audience with the passed name.
+     */
+    synchronized boolean isDefined(String name) {
+        return audiences.containsKey(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns the members of the audience.
+     *
+     * @param name the name of the audience.
+     * @return the members. Empty if there isn't any audience with the passed name.
+     */
+    synchronized Player[] getRecipients(String name) {
+        String key = name.toLowerCase(Locale.ENGLISH);
+        Player[] cached = recipients.get(key);
+        if (cached == null) {
+            Set<Player> audienceMembers = members.get(key);
+            if (audienceMembers == null) {
+                return NO_PLAYERS;
+            }
+            cached = audienceMembers.toArray(new Player[audienceMembers.size()]);
+            recipients.put(key, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Recalculates the memberships of all online players.
+     */
+    synchronized void refreshAll() {
+        members.clear();
+        recipients.clear();
+        for (String key : audiences.keySet()) {
+            members.put(key, new LinkedHashSet<Player>());
+        }
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            refresh(player);
+        }
+    }
+
+    /**
+     * Recalculates the memberships of the passed player.
+     *
+     * @param player the player to check.
+     */
+    synchronized void refresh(Player player) {
+        Set<String> playerTags = tagsOf(player);
+        for (Map.Entry<String, Audience> audience : audiences.entrySet()) {
+            Set<Player> audienceMembers = members.get(audience.getKey());
+            boolean changed;
+            if (audience.getValue().matches(player, playerTags)) {
+                changed = audienceMembers.add(player);
+            } else {
+                changed = audienceMembers.remove(player);
+            }
+            if (changed) {
+                recipients.remove(audience.getKey());
+            }
+        }
+    }
+
+    /**
+     * Adds or removes a tag of the player. Tags are dropped when the player quits.
+     *
+     * @param player the player to tag.
+     * @param tag    the tag.
+     * @param tagged true to add the tag, false to remove it.
+     */
+    synchronized void setTag(Player player, String tag, boolean tagged) {
+        Set<String> playerTags = tags.get(player.getName());
+        if (tagged) {
+            if (playerTags == null) {
+                playerTags = new HashSet<String>();
+                tags.put(player.getName(), playerTags);
+            }
+            playerTags.add(tag);
+        } else if (playerTags != null) {
+            playerTags.remove(tag);
+        }
+        refresh(player);
+    }
+
+    /**
+     * Removes the player from all audiences.
+     *
+     * @param player the player to remove.
+     */
+    synchronized void remove(Player player) {
+        tags.remove(player.getName());
+        for (Map.Entry<String, Set<Player>> audienceMembers : members.entrySet()) {
+            if (audienceMembers.getValue().remove(player)) {
+                recipients.remove(audienceMembers.getKey());
+            }
+        }
+    }
+
+    /**
+     * Called when a player joins the server.
+     *
+     * @param event the event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public synchronized void onPlayerJoin(PlayerJoinEvent event) {
+        refresh(event.getPlayer());
+    }
+
+    /**
+     * Called when a player leaves the server.
+     *
+     * @param event the event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public synchronized void onPlayerQuit(PlayerQuitEvent event) {
+        remove(event.getPlayer());
+    }
+
+    /**
+     * Called when a player changes the world.
+     *
+     * @param event the event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public synchronized void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        refresh(event.getPlayer());
+    }
+
+    /**
+     * @return the tags of the player, never null.
+     */
+    private Set<String> tagsOf(Player player) {
+        Set<String> playerTags = tags.get(player.getName());
+        return playerTags != null ? playerTags : Collections.<String>emptySet();
+    }
+}
@@ -22,6 +22,17 @@ import org.bukkit.ChatColor;
  * @author MiHo
  */
 public class ChatColorHelper {
+    /**
+     * Lookup table from color char to the color code, built once instead of compiling patterns on every call.
+     */
+    private static final String[] COLOR_CODES = new String[128];
+
+    static {
+        for (ChatColor color : ChatColor.values()) {
+            COLOR_CODES[color.getChar()] = color.toString();
+        }
+    }
+
     /**
      * Replace the &x with the color code of color x.
      *
@@ -29,10 +40,24 @@ public class ChatColorHelper {
      * @return the string ready to output.
      */
     public static String replaceColorCodes(String message) {
-        for (ChatColor color : ChatColor.values()) {
-            message = message.replaceAll(String.format("&%c", color.getChar()), color.toString());
+        int index = message.indexOf('&');
+        if (index < 0) {
+            return message;
+        }
+
+        StringBuilder result = new StringBuilder(message.length());
+        int copied = 0;
+        for (; index >= 0 && index + 1 < message.length(); index = message.indexOf('&', index + 1)) {
+            char colorChar = message.charAt(index + 1);
+            String colorCode = colorChar < COLOR_CODES.length ? COLOR_CODES[colorChar] : null;
+            if (colorCode != null) {
+                result.append(message, copied, index).append(colorCode);
+                copied = index + 2;
+                ++index;
+            }
         }
+        result.append(message, copied, message.length());
 
-        return message;
+        return result.toString();
     }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+
+/**
+ * Orders all announcements by priority and the time they were queued, and delivers at most one of them every minimum
+ * gap. Runs every tick on the main thread, announcements may be queued from any thread.
+ *
+ * @author MiHo
+ */
+class DeliveryQueue implements Runnable {
+    /**
+     * The plugin which holds this queue.
+     */
+    private final AnnouncerPlugin plugin;
+
+    /**
+     * Heap of the waiting deliveries.
+     */
+    private final PriorityQueue<Delivery> deliveries = new PriorityQueue<Delivery>();
+
+    /**
+     * Number of waiting deliveries per priority.
+     */
+    private final int[] waiting = new int[AnnouncementPriority.values().length];
+
+    /**
+     * The current tick.
+     */
+    private long tick = 0;
+
+    /**
+     * Tick of the last delivery.
+     */
+    private long lastDelivery = Long.MIN_VALUE / 2;
+
+    /**
+     * Used to keep the order of deliveries with equal priority and due tick.
+     */
+    private long sequence = 0;
+
+    /**
+     * Allocates a new DeliveryQueue.
+     *
+     * @param plugin the plugin which holds this queue.
+     */
+    DeliveryQueue(AnnouncerPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Queues an announcement.
+     *
+     * @param line     the messages to promote.
+     * @param priority the priority.
+     */
+    void add(final String line, AnnouncementPriority priority) {
+        add(new Runnable() {
+            public void run() {
+                plugin.announce(line);
+            }
+        }, priority);
+    }
+
+    /**
+     * Queues a task which does the announcing.
+     *
+     * @param delivery the task which does the announcing.
+     * @param priority the priority.
+     */
+    synchronized void add(Runnable delivery, AnnouncementPriority priority) {
+        deliveries.add(new Delivery(delivery, priority, tick, sequence++));
+        ++waiting[priority.ordinal()];
+    }
+
+    /**
+     * Changes the priority of a waiting delivery. Nothing happens if the task isn't waiting.
+     *
+     * @param delivery the task which does the announcing.
+     * @param priority the new priority.
+     */
+    synchronized void reprioritize(Runnable delivery, AnnouncementPriority priority) {
+        for (Iterator<Delivery> iterator = deliveries.iterator(); iterator.hasNext(); ) {
+            Delivery waitingDelivery = iterator.next();
+            if (waitingDelivery.task == delivery) {
+                iterator.remove();
+                --waiting[waitingDelivery.priority.ordinal()];
+                deliveries.add(new Delivery(delivery, priority, waitingDelivery.due, waitingDelivery.sequence));
+                ++waiting[priority.ordinal()];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a waiting delivery. Nothing happens if the task isn't waiting.
+     *
+     * @param delivery the task which does the announcing.
+     */
+    synchronized void remove(Runnable delivery) {
+        for (Iterator<Delivery> iterator = deliveries.iterator(); iterator.hasNext(); ) {
+            Delivery waitingDelivery = iterator.next();
+            if (waitingDelivery.task == delivery) {
+                iterator.remove();
+                --waiting[waitingDelivery.priority.ordinal()];
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param priority the priority to check.
+     * @return true if there is any waiting delivery with the passed priority.
+     */
+    synchronized boolean hasWaiting(AnnouncementPriority priority) {
+        return waiting[priority.ordinal()] > 0;
+    }
+
+    /**
+     * @return the number of waiting deliveries.
+     */
+    synchronized int size() {
+        return deliveries.size();
+    }
+
+    /**
+     * Drops all waiting deliveries. Futures handed out for them get cancelled, outside the lock, as cancelling removes
+     * them from the queue again.
+     */
+    void clear() {
+        Delivery[] dropped;
+        synchronized (this) {
+            dropped = deliveries.toArray(new Delivery[deliveries.size()]);
+            deliveries.clear();
+            Arrays.fill(waiting, 0);
+        }
+
+        for (Delivery delivery : dropped) {
+            if (delivery.task instanceof Future) {
+                ((Future<?>) delivery.task).cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Called every tick. The delivery itself runs outside the lock, so it may queue further announcements.
+     */
+    public void run() {
+        Delivery next;
+        synchronized (this) {
+            ++tick;
+
+            // Cancelled deliveries are dropped without taking the slot of the next one.
+            while ((next = deliveries.peek()) != null && next.isCancelled()) {
+                deliveries.poll();
+                --waiting[next.priority.ordinal()];
+            }
+            if (next == null) {
+                return;
+            }
+
+            if (next.priority != AnnouncementPriority.URGENT && tick - lastDelivery < plugin.getMinimumGap() * 20) {
+                return;
+            }
+
+            deliveries.poll();
+            --waiting[next.priority.ordinal()];
+            lastDelivery = tick;
+        }
+
+        if (next.priority == AnnouncementPriority.URGENT) {
+            plugin.getAnnouncementPacer().restart();
+        }
+
+        next.task.run();
+    }
+
+    /**
+     * Announcement waiting for delivery.
+     */
+    private static final class Delivery implements Comparable<Delivery> {
+        /**
+         * The task which does the announcing.
+         */
+        private final Runnable task;
+
+        /**
+         * The priority.
+         */
+        private final AnnouncementPriority priority;
+
+        /**
+         * The tick the delivery was queued.
+         */
+        private final long due;
+
+        /**
+         * The order of queueing.
+         */
+        private final long sequence;
+
+        /**
+         * Allocates a new delivery.
+         */
+        Delivery(Runnable task, AnnouncementPriority priority, long due, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.due = due;
+            this.sequence = sequence;
+        }
+
+        /**
+         * @return true if the task is a future which got cancelled.
+         */
+        boolean isCancelled() {
+            return task instanceof Future && ((Future<?>) task).isCancelled();
+        }
+
+        public int compareTo(Delivery other) {
+            if (priority != other.priority) {
+                return priority.compareTo(other.priority);
+            }
+            if (due != other.due) {
+                return due < other.due ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary copy of the loaded configuration, stored next to the config.yml. It is keyed by a checksum of the
+ * config.yml and by the versions of the plugin and the server, so it is only used as long as nobody edited the yml file
+ * or upgraded in between. Besides the settings it contains the compiled library: every distinct announcement with its
+ * rendered segments, so they don't need to be rendered again on startup. The rendered segments depend on the color
+ * codes of the server and on the renderer of the plugin, that's why the versions are part of the key.
+ *
+ * @author MiHo
+ */
+final class LibrarySnapshot {
+    /**
+     * Identifies snapshot files. Change the version whenever the layout changes.
+     */
+    private static final int MAGIC = 0x414e4e06;
+
+    /**
+     * Checksum of the config.yml this snapshot was created from.
+     */
+    final long checksum;
+
+    /**
+     * Versions of the plugin and the server this snapshot was created with.
+     */
+    final String version;
+
+    /**
+     * The prefix of all announcements.
+     */
+    final String prefix;
+
+    /**
+     * The interval in seconds.
+     */
+    final long interval;
+
+    /**
+     * Flag if the announcer is enabled.
+     */
+    final boolean enabled;
+
+    /**
+     * Flag if random mode is enabled.
+     */
+    final boolean random;
+
+    /**
+     * Average tick interval in milliseconds, above which announcements get deferred.
+     */
+    final double pacingThreshold;
+
+    /**
+     * Maximum time in seconds an announcement gets deferred.
+     */
+    final long pacingMaxDelay;
+
+    /**
+     * Minimum time in seconds between two announcements.
+     */
+    final long minimumGap;
+
+    /**
+     * The defined audiences.
+     */
+    final Collection<Audience> audiences;
+
+    /**
+     * The announcement messages.
+     */
+    final List<String> messages;
+
+    /**
+     * The rendered form of every distinct message, rendered with the prefix of this snapshot.
+     */
+    final Map<String, AnnouncementRenderer.Rendered> rendered;
+
+    /**
+     * Allocates a new snapshot.
+     *
+     * @param checksum        the checksum of the config.yml.
+     * @param version         the versions of the plugin and the server.
+     * @param prefix          the prefix of all announcements.
+     * @param interval        the interval in seconds.
+     * @param enabled         flag if the announcer is enabled.
+     * @param random          flag if random mode is enabled.
+     * @param pacingThreshold average tick interval in milliseconds, above which announcements get deferred.
+     * @param pacingMaxDelay  maximum time in seconds an announcement gets deferred.
+     * @param minimumGap      minimum time in seconds between two announcements.
+     * @param audiences       the defined audiences.
+     * @param messages        the announcement messages.
+     * @param rendered        the rendered form of every distinct message, rendered with the passed prefix.
+     */
+    LibrarySnapshot(long checksum, String version, String prefix, long interval, boolean enabled, boolean random,
+                    double pacingThreshold, long pacingMaxDelay, long minimumGap, Collection<Audience> audiences,
+                    List<String> messages, Map<String, AnnouncementRenderer.Rendered> rendered) {
+        this.checksum = checksum;
+        this.version = version;
+        this.prefix = prefix;
+        this.interval = interval;
+        this.enabled = enabled;
+        this.random = random;
+        this.pacingThreshold = pacingThreshold;
+        this.pacingMaxDelay = pacingMaxDelay;
+        this.minimumGap = minimumGap;
+        this.audiences = audiences;
+        this.messages = messages;
+        this.rendered = rendered;
+    }
+
+    /**
+     * @param checksum the checksum of the config.yml.
+     * @return a copy of this snapshot with the passed checksum.
+     */
+    LibrarySnapshot withChecksum(long checksum) {
+        return new LibrarySnapshot(checksum, version, prefix, interval, enabled, random, pacingThreshold,
+            pacingMaxDelay, minimumGap, audiences, messages, rendered);
+    }
+
+    /**
+     * Calculates the checksum of the passed file.
+     *
+     * @param file the file to check.
+     * @return the checksum.
+     * @throws IOException if the file could not be read.
+     */
+    static long checksumOf(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Reads the snapshot from the passed file.
+     *
+     * @param file             the snapshot file.
+     * @param expectedChecksum the checksum of the current config.yml.
+     * @param expectedVersion  the versions of the running plugin and server.
+     * @return the snapshot, or null if there is none or it belongs to another config.yml, plugin or server version.
+     * @throws IOException if the snapshot file is broken.
+     */
+    static LibrarySnapshot read(File file, long expectedChecksum, String expectedVersion) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != MAGIC || input.readLong() != expectedChecksum
+                || !expectedVersion.equals(readString(input))) {
+                return null;
+            }
+
+            String prefix = readString(input);
+            long interval = input.readLong();
+            boolean enabled = input.readBoolean();
+            boolean random = input.readBoolean();
+            double pacingThreshold = input.readDouble();
+            long pacingMaxDelay = input.readLong();
+            long minimumGap = input.readLong();
+
+            int audienceCount = input.readInt();
+            if (audienceCount < 0) {
+                throw new IOException("Invalid number of audiences in snapshot!");
+            }
+            List<Audience> audiences = new ArrayList<Audience>(audienceCount);
+            for (int index = 0; index < audienceCount; ++index) {
+                audiences.add(new Audience(readString(input), readOptionalString(input), readOptionalString(input),
+                    readOptionalString(input)));
+            }
+
+            int distinctCount = input.readInt();
+            if (distinctCount < 0) {
+                throw new IOException("Invalid number of distinct messages in snapshot!");
+            }
+            String[] distinct = new String[distinctCount];
+            Map<String, AnnouncementRenderer.Rendered> rendered =
+                new HashMap<String, AnnouncementRenderer.Rendered>(distinctCount * 2);
+            for (int index = 0; index < distinctCount; ++index) {
+                distinct[index] = readString(input);
+                String audience = readOptionalString(input);
+                int segmentCount = input.readInt();
+                if (segmentCount < 0) {
+                    throw new IOException("Invalid number of segments in snapshot!");
+                }
+                String[] segments = new String[segmentCount];
+                boolean[] commands = new boolean[segmentCount];
+                for (int segment = 0; segment < segmentCount; ++segment) {
+                    commands[segment] = input.readBoolean();
+                    segments[segment] = readString(input);
+                }
+                rendered.put(distinct[index], new AnnouncementRenderer.Rendered(audience, segments, commands));
+            }
+
+            int count = input.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid number of messages in snapshot!");
+            }
+            List<String> messages = new ArrayList<String>(count);
+            for (int index = 0; index < count; ++index) {
+                int distinctIndex = input.readInt();
+                if (distinctIndex < 0 || distinctIndex >= distinctCount) {
+                    throw new IOException("Invalid message in snapshot!");
+                }
+                messages.add(distinct[distinctIndex]);
+            }
+
+            return new LibrarySnapshot(expectedChecksum, expectedVersion, prefix, interval, enabled, random,
+                pacingThreshold, pacingMaxDelay, minimumGap, audiences, messages, rendered);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Writes this snapshot to the passed file. The snapshot is written to a temporary file first, which replaces the
+     * passed file as soon as it is complete, so a crash never leaves a truncated snapshot behind. The snapshot is only
+     * a cache, so it isn't synced to the disk: if it gets lost anyway, the config.yml is parsed again.
+     *
+     * @param file the snapshot file.
+     * @throws IOException if the file could not be written.
+     */
+    void write(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            writeTo(temporary);
+            if (!temporary.renameTo(file)) {
+                // Some platforms don't replace existing files when renaming.
+                file.delete();
+                if (!temporary.renameTo(file)) {
+                    throw new IOException("Could not replace " + file.getName());
+                }
+            }
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Writes this snapshot.
+     *
+     * @param file the file to write.
+     * @throws IOException if the file could not be written.
+     */
+    private void writeTo(File file) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeLong(checksum);
+            writeString(output, version);
+            writeString(output, prefix);
+            output.writeLong(interval);
+            output.writeBoolean(enabled);
+            output.writeBoolean(random);
+            output.writeDouble(pacingThreshold);
+            output.writeLong(pacingMaxDelay);
+            output.writeLong(minimumGap);
+            output.writeInt(audiences.size());
+            for (Audience audience : audiences) {
+                writeString(output, audience.name);
+                writeOptionalString(output, audience.world);
+                writeOptionalString(output, audience.permission);
+                writeOptionalString(output, audience.tag);
+            }
+
+            Map<String, Integer> distinct = new HashMap<String, Integer>(messages.size() * 2);
+            List<String> distinctMessages = new ArrayList<String>();
+            for (String message : messages) {
+                if (!distinct.containsKey(message)) {
+                    distinct.put(message, distinct.size());
+                    distinctMessages.add(message);
+                }
+            }
+            output.writeInt(distinctMessages.size());
+            for (String message : distinctMessages) {
+                AnnouncementRenderer.Rendered compiled = rendered.get(message);
+                writeString(output, message);
+                writeOptionalString(output, compiled.audience);
+                output.writeInt(compiled.segments.length);
+                for (int segment = 0; segment < compiled.segments.length; ++segment) {
+                    output.writeBoolean(compiled.commands[segment]);
+                    writeString(output, compiled.segments[segment]);
+                }
+            }
+
+            output.writeInt(messages.size());
+            for (String message : messages) {
+                output.writeInt(distinct.get(message));
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Reads a length prefixed UTF-8 string. (Unlike readUTF not limited to 64k.)
+     */
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length in snapshot!");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Reads a string, which might be null.
+     */
+    private static String readOptionalString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? readString(input) : null;
+    }
+
+    /**
+     * Writes a string, which might be null.
+     */
+    private static void writeOptionalString(DataOutputStream output, String string) throws IOException {
+        output.writeBoolean(string != null);
+        if (string != null) {
+            writeString(output, string);
+        }
+    }
+
+    /**
+     * Writes a length prefixed UTF-8 string.
+     */
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+}
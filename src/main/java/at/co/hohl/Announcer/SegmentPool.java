@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference counted pool of announcement segments. Identical segments are only kept once, and dropped as soon as no
+ * announcement uses them anymore. Not thread-safe, guarded by the AnnouncementRenderer.
+ *
+ * @author MiHo
+ */
+final class SegmentPool {
+    /**
+     * The pooled segments with their number of references.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Sum of all references.
+     */
+    private int references = 0;
+
+    /**
+     * Returns the pooled instance of the segment and adds a reference to it.
+     *
+     * @param segment the segment.
+     * @return the pooled instance, equal to the passed segment.
+     */
+    String acquire(String segment) {
+        Entry entry = entries.get(segment);
+        if (entry == null) {
+            entry = new Entry(segment);
+            entries.put(segment, entry);
+        }
+        ++entry.references;
+        ++references;
+        return entry.segment;
+    }
+
+    /**
+     * Removes a reference to the segment. The segment is dropped if there are no references left.
+     *
+     * @param segment the segment.
+     */
+    void release(String segment) {
+        Entry entry = entries.get(segment);
+        if (entry != null) {
+            --references;
+            if (--entry.references == 0) {
+                entries.remove(segment);
+            }
+        }
+    }
+
+    /**
+     * @param segment the segment.
+     * @return the number of references to the segment.
+     */
+    int referencesOf(String segment) {
+        Entry entry = entries.get(segment);
+        return entry != null ? entry.references : 0;
+    }
+
+    /**
+     * @return the number of pooled segments.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the sum of all references.
+     */
+    int references() {
+        return references;
+    }
+
+    /**
+     * @return the estimated heap usage of all pooled segments in bytes.
+     */
+    long pooledBytes() {
+        long bytes = 0;
+        for (Entry entry : entries.values()) {
+            bytes += estimateBytes(entry.segment);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the estimated heap usage in bytes, if every reference would hold its own copy.
+     */
+    long unpooledBytes() {
+        long bytes = 0;
+        for (Entry entry : entries.values()) {
+            bytes += estimateBytes(entry.segment) * entry.references;
+        }
+        return bytes;
+    }
+
+    /**
+     * Estimates the heap usage of a string. (Object header, fields and the char array.)
+     *
+     * @param string the string.
+     * @return the estimated size in bytes.
+     */
+    static long estimateBytes(String string) {
+        return 40 + 2L * string.length();
+    }
+
+    /**
+     * Pooled segment.
+     */
+    private static final class Entry {
+        /**
+         * The pooled instance.
+         */
+        private final String segment;
+
+        /**
+         * The number of references.
+         */
+        private int references = 0;
+
+        /**
+         * Allocates a new entry.
+         */
+        Entry(String segment) {
+            this.segment = segment;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Subcommand of /announce, as registered at the AnnouncerCommandExecutor. The declared arguments are parsed and
+ * validated before the handler gets called.
+ *
+ * @author MiHo
+ */
+final class Subcommand {
+    /**
+     * Handles the subcommand.
+     */
+    interface Handler {
+        /**
+         * Called when the subcommand is used. The permission and the arguments are already checked.
+         *
+         * @param sender    the sender. (In most case a player.)
+         * @param arguments the parsed arguments.
+         * @return true if a valid command, otherwise false
+         */
+        boolean onCommand(CommandSender sender, Values arguments);
+    }
+
+    /**
+     * Kind of an argument, used for parsing and tab completion.
+     */
+    enum Argument {
+        /**
+         * 1 based index of an announcement.
+         */
+        INDEX(null) {
+            Object parse(String argument, int announcements) {
+                int index = parseNumber(argument, "Index must be a integer!");
+                if (index <= 0 || index > announcements) {
+                    throw new IllegalArgumentException("There isn't any announcement with the passed index! " +
+                        "Use '/announce list' to view all available announcements.");
+                }
+                return index;
+            }
+        },
+
+        /**
+         * Page of the announcement list.
+         */
+        PAGE(null) {
+            Object parse(String argument, int announcements) {
+                int page = parseNumber(argument, "Invalid page number!");
+                if (page <= 0) {
+                    throw new IllegalArgumentException("Invalid page number!");
+                }
+                return page;
+            }
+        },
+
+        /**
+         * Number greater than 0.
+         */
+        NUMBER(null) {
+            Object parse(String argument, int announcements) {
+                int number = parseNumber(argument, String.format("'%s' is not a number!", argument));
+                if (number <= 0) {
+                    throw new IllegalArgumentException("The number must be greater than 0!");
+                }
+                return number;
+            }
+        },
+
+        /**
+         * Either true or false.
+         */
+        BOOLEAN(null) {
+            Object parse(String argument, int announcements) {
+                if ("true".equalsIgnoreCase(argument)) {
+                    return true;
+                } else if ("false".equalsIgnoreCase(argument)) {
+                    return false;
+                }
+                throw new IllegalArgumentException("Use true or false to enable or disable! " +
+                    "Use '/announce help' to view the help.");
+            }
+        },
+
+        /**
+         * The flag for urgent broadcasts.
+         */
+        URGENT("urgent"),
+
+        /**
+         * The flag for replacing existing files.
+         */
+        OVERWRITE("overwrite"),
+
+        /**
+         * Name of a file in the plugin folder.
+         */
+        FILE(null),
+
+        /**
+         * Free text without completion, takes all remaining arguments. Only allowed as last argument.
+         */
+        TEXT(null);
+
+        /**
+         * The only accepted value of a flag, or null if this isn't a flag.
+         */
+        final String flag;
+
+        /**
+         * Allocates a new kind of argument.
+         *
+         * @param flag the only accepted value of a flag, or null if this isn't a flag.
+         */
+        Argument(String flag) {
+            this.flag = flag;
+        }
+
+        /**
+         * Parses a passed argument.
+         *
+         * @param argument      the passed argument.
+         * @param announcements the number of announcements.
+         * @return the parsed value.
+         * @throws IllegalArgumentException if the argument is invalid. The message tells the user why.
+         */
+        Object parse(String argument, int announcements) {
+            if (flag != null && !flag.equalsIgnoreCase(argument)) {
+                throw new IllegalArgumentException(String.format("Unknown argument '%s', only '%s' is allowed here!",
+                    argument, flag));
+            }
+            return flag != null ? Boolean.TRUE : argument;
+        }
+
+        /**
+         * Parses an integer.
+         */
+        private static int parseNumber(String argument, String error) {
+            try {
+                return Integer.parseInt(argument);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(error);
+            }
+        }
+    }
+
+    /**
+     * The parsed arguments of a command, in the declared order.
+     */
+    static final class Values {
+        /**
+         * The parsed values, null for missing optional arguments.
+         */
+        private final Object[] values;
+
+        /**
+         * Allocates new values.
+         */
+        private Values(Object[] values) {
+            this.values = values;
+        }
+
+        /**
+         * @param index the position of the argument.
+         * @return true if the argument was passed.
+         */
+        boolean has(int index) {
+            return values[index] != null;
+        }
+
+        /**
+         * @param index the position of an argument of the kind INDEX, PAGE or NUMBER.
+         * @return the passed number.
+         */
+        int getInt(int index) {
+            return (Integer) values[index];
+        }
+
+        /**
+         * @param index the position of an argument of the kind BOOLEAN or a flag.
+         * @return the passed boolean, false for missing flags.
+         */
+        boolean getBoolean(int index) {
+            return values[index] != null && (Boolean) values[index];
+        }
+
+        /**
+         * @param index the position of an argument of the kind FILE or TEXT.
+         * @return the passed text.
+         */
+        String getString(int index) {
+            return (String) values[index];
+        }
+    }
+
+    /**
+     * The name of the subcommand.
+     */
+    final String name;
+
+    /**
+     * Alternative names of the subcommand.
+     */
+    final String[] aliases;
+
+    /**
+     * The permission needed to use the subcommand, or null if everybody may use it.
+     */
+    final String permission;
+
+    /**
+     * The number of arguments which are required, all others are optional.
+     */
+    final int required;
+
+    /**
+     * The kinds of the arguments, in order.
+     */
+    final Argument[] arguments;
+
+    /**
+     * Handles the subcommand.
+     */
+    final Handler handler;
+
+    /**
+     * Allocates a new subcommand.
+     *
+     * @param name       the name of the subcommand.
+     * @param aliases    alternative names of the subcommand.
+     * @param permission the permission needed to use the subcommand, or null if everybody may use it.
+     * @param required   the number of arguments which are required, all others are optional.
+     * @param arguments  the kinds of the arguments, in order.
+     * @param handler    handles the subcommand.
+     */
+    Subcommand(String name, String[] aliases, String permission, int required, Argument[] arguments,
+               Handler handler) {
+        this.name = name;
+        this.aliases = aliases;
+        this.permission = permission;
+        this.required = required;
+        this.arguments = arguments;
+        this.handler = handler;
+    }
+
+    /**
+     * @param sender the sender to check.
+     * @return true if the sender is allowed to use the subcommand.
+     */
+    boolean isPermitted(CommandSender sender) {
+        return permission == null || sender.hasPermission(permission);
+    }
+
+    /**
+     * Checks the number of arguments and parses them by their declared kind.
+     *
+     * @param args          the arguments, including the name of the subcommand.
+     * @param announcements the number of announcements.
+     * @return the parsed arguments.
+     * @throws IllegalArgumentException if any argument is invalid. The message tells the user why.
+     */
+    Values parse(String[] args, int announcements) {
+        int passed = Math.max(0, args.length - 1);
+        boolean text = arguments.length > 0 && arguments[arguments.length - 1] == Argument.TEXT;
+        if (passed < required || (!text && passed > arguments.length)) {
+            throw new IllegalArgumentException("Invalid number of arguments! Use '/announce help' to view the help.");
+        }
+
+        Object[] values = new Object[arguments.length];
+        for (int index = 0; index < arguments.length && index < passed; ++index) {
+            if (arguments[index] == Argument.TEXT) {
+                StringBuilder joined = new StringBuilder();
+                for (int textIndex = index + 1; textIndex < args.length; ++textIndex) {
+                    joined.append(args[textIndex]);
+                    joined.append(" ");
+                }
+                values[index] = joined.toString();
+            } else {
+                values[index] = arguments[index].parse(args[index + 1], announcements);
+            }
+        }
+        return new Values(values);
+    }
+}
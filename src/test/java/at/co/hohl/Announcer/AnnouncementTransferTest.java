@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import org.bukkit.command.CommandSender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the JSON string parser and the escaping of plain files, and exports and imports announcements through the
+ * data folder.
+ *
+ * @author MiHo
+ */
+public class AnnouncementTransferTest {
+    /**
+     * Announcements which need escaping in one of the file formats.
+     */
+    private static final List<String> MESSAGES = Arrays.asList(
+        "&cPlain announcement",
+        "#not a comment",
+        "\\starts with a backslash",
+        "\\#starts with both",
+        "##",
+        "\\",
+        "quotes \" and backslashes \\ inside",
+        "/say command");
+
+    /**
+     * The simulated server.
+     */
+    private FakeServer server;
+
+    /**
+     * The data folder of the plugin.
+     */
+    private File dataFolder;
+
+    /**
+     * The plugin under test.
+     */
+    private AnnouncerPlugin plugin;
+
+    /**
+     * Messages sent to the command sender.
+     */
+    private final List<String> told = new ArrayList<String>();
+
+    /**
+     * The sender of the import and export commands.
+     */
+    private final CommandSender sender = FakeObject.proxy(CommandSender.class, new FakeObject() {
+        protected Object handle(String method, Object[] args) {
+            if ("sendMessage".equals(method) && args[0] instanceof String) {
+                told.add((String) args[0]);
+                return null;
+            }
+            return UNHANDLED;
+        }
+    });
+
+    @Before
+    public void setUp() throws Exception {
+        dataFolder = FakeServer.createDataFolder("announcement:\n" +
+            "    prefix: ''\n" +
+            "    interval: 1000\n" +
+            "    messages:\n" +
+            FakeServer.toYamlList(MESSAGES, "    "));
+
+        server = new FakeServer();
+        plugin = server.enablePlugin(dataFolder);
+    }
+
+    @After
+    public void tearDown() {
+        plugin.onDisable();
+        FakeServer.deleteDataFolder(dataFolder);
+    }
+
+    @Test
+    public void parsesEscapeSequences() {
+        assertEquals("", AnnouncementTransfer.parseJsonString("\"\""));
+        assertEquals("a\"b\\c/d", AnnouncementTransfer.parseJsonString("\"a\\\"b\\\\c\\/d\""));
+        assertEquals("\b\f\n\r\t", AnnouncementTransfer.parseJsonString("\"\\b\\f\\n\\r\\t\""));
+        assertEquals("\u00a7cRed", AnnouncementTransfer.parseJsonString("\"\\u00A7cRed\""));
+        assertEquals("end A", AnnouncementTransfer.parseJsonString("\"end \\u0041\""));
+    }
+
+    @Test
+    public void rejectsInvalidEscapeSequences() {
+        assertInvalid("\"\\\"");
+        assertInvalid("\"end \\\"");
+        assertInvalid("\"\\x\"");
+        assertInvalid("\"end \\u\"");
+        assertInvalid("\"end \\u004\"");
+        assertInvalid("\"\\u00g1\"");
+        assertInvalid("\"\\u+041\"");
+        assertInvalid("\"\\u-001\"");
+        assertInvalid("\"\\u\uff10\uff10\uff14\uff11\"");
+    }
+
+    @Test
+    public void rejectsUnescapedAndMissingQuotes() {
+        assertInvalid("");
+        assertInvalid("\"");
+        assertInvalid("no quotes");
+        assertInvalid("\"missing end");
+        assertInvalid("missing start\"");
+        assertInvalid("'single quotes'");
+        assertInvalid("\"unescaped \" quote\"");
+        assertInvalid("\"a\"\"b\"");
+    }
+
+    @Test
+    public void formatsParsableJsonStrings() {
+        for (String message : new String[]{"", "\"", "\\", "line\nbreak\r\n", "tab\t", "\u0001\u001f", "\u00a7c"}) {
+            assertEquals(message, AnnouncementTransfer.parseJsonString(AnnouncementTransfer.toJsonString(message)));
+        }
+        assertEquals("\"\\u0001\"", AnnouncementTransfer.toJsonString("\u0001"));
+    }
+
+    @Test
+    public void escapesPlainText() {
+        for (String message : MESSAGES) {
+            String line = AnnouncementTransfer.escapePlainText(message);
+            assertEquals(message, AnnouncementTransfer.unescapePlainText(line));
+            assertEquals(message, message.startsWith("#"), line.startsWith("\\#"));
+        }
+    }
+
+    @Test
+    public void roundTripsPlainTextFiles() throws Exception {
+        assertRoundTrip("announcements.txt");
+    }
+
+    @Test
+    public void roundTripsJsonFiles() throws Exception {
+        assertRoundTrip("announcements.jsonl");
+    }
+
+    /**
+     * Exports all announcements into the passed file and imports them again.
+     *
+     * @param name the name of the file in the data folder.
+     */
+    private void assertRoundTrip(String name) throws Exception {
+        AnnouncementTransfer transfer = new AnnouncementTransfer(plugin);
+        File file = transfer.resolve(name);
+
+        transfer.exportTo(sender, file, false);
+        server.scheduler.tick(3);
+        assertEquals(told.toString(), MESSAGES.size(), plugin.getAnnouncements().size());
+
+        transfer.importFrom(sender, file);
+        server.scheduler.tick(3);
+
+        List<String> expected = new ArrayList<String>(MESSAGES);
+        expected.addAll(MESSAGES);
+        assertEquals(told.toString(), expected, plugin.getAnnouncements());
+    }
+
+    /**
+     * Checks that the passed literal is rejected.
+     *
+     * @param literal the invalid literal.
+     */
+    private static void assertInvalid(String literal) {
+        try {
+            String parsed = AnnouncementTransfer.parseJsonString(literal);
+            fail(String.format("%s was parsed as %s", literal, parsed));
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
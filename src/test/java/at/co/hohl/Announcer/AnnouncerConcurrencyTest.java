@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Changes the announcements from several threads, while the scheduled and manual announcements are running, and
+ * checks that the announcer state stays consistent.
+ *
+ * @author MiHo
+ */
+public class AnnouncerConcurrencyTest {
+    /**
+     * Number of announcements at the start of the library, which are announced manually by index.
+     */
+    private static final int PINNED = 3;
+
+    /**
+     * Number of announcements after the pinned ones, which are never removed.
+     */
+    private static final int STABLE = 12;
+
+    /**
+     * Number of announcements added during the test.
+     */
+    private static final int ADDED = Integer.getInteger("concurrency.added", 300);
+
+    /**
+     * Number of added announcements the deleter always leaves in the library.
+     */
+    private static final int KEPT = 5;
+
+    /**
+     * The simulated server.
+     */
+    private FakeServer server;
+
+    /**
+     * The data folder of the plugin.
+     */
+    private File dataFolder;
+
+    /**
+     * The plugin under test.
+     */
+    private AnnouncerPlugin plugin;
+
+    /**
+     * The announcements in the library at the start.
+     */
+    private List<String> initial;
+
+    /**
+     * Failures of the worker threads.
+     */
+    private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    /**
+     * Flag if the worker threads should keep running.
+     */
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    @Before
+    public void setUp() throws Exception {
+        initial = new ArrayList<String>();
+        for (int index = 1; index <= PINNED; ++index) {
+            initial.add("pinned-" + index);
+        }
+        for (int index = 1; index <= STABLE; ++index) {
+            initial.add("stable-" + index);
+        }
+
+        dataFolder = FakeServer.createDataFolder("announcement:\n" +
+            "    prefix: ''\n" +
+            "    interval: 1\n" +
+            "    min-gap: 0\n" +
+            "    enabled: true\n" +
+            "    random: false\n" +
+            "    messages:\n" +
+            FakeServer.toYamlList(initial, "    "));
+
+        server = new FakeServer();
+        server.addPlayer("Player", "world", AnnouncerPermissions.RECEIVER);
+        plugin = server.enablePlugin(dataFolder);
+        server.startRecording();
+    }
+
+    @After
+    public void tearDown() {
+        plugin.onDisable();
+        FakeServer.deleteDataFolder(dataFolder);
+    }
+
+    @Test
+    public void concurrentChangesKeepTheInvariants() throws Exception {
+        final List<String> added = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> removed = Collections.synchronizedList(new ArrayList<String>());
+        final AnnouncerThread announcerThread = plugin.getAnnouncerThread();
+
+        Thread adder = new Worker("adder") {
+            protected boolean work() {
+                String message = "added-" + added.size();
+                plugin.addAnnouncement(message);
+                added.add(message);
+                return added.size() < ADDED;
+            }
+        };
+        Thread deleter = new Worker("deleter") {
+            private final Random random = new Random(1);
+
+            protected boolean work() {
+                // Only this thread removes announcements, so the indexes of the snapshot stay valid.
+                List<String> announcements = plugin.getAnnouncements();
+                int removable = announcements.size() - PINNED - STABLE - KEPT;
+                if (removable > 0) {
+                    int index = PINNED + STABLE + random.nextInt(removable);
+                    String message = plugin.removeAnnouncement(index + 1);
+                    assertEquals(announcements.get(index), message);
+                    removed.add(message);
+                }
+                return true;
+            }
+        };
+        Thread reloader = new Worker("reloader") {
+            protected boolean work() {
+                plugin.reloadConfiguration();
+                return true;
+            }
+        };
+        Thread manualAnnouncer = new Worker("manual announcer") {
+            private final Random random = new Random(2);
+
+            protected boolean work() {
+                if (!plugin.getDeliveryQueue().hasWaiting(AnnouncementPriority.NORMAL)) {
+                    plugin.announce(1 + random.nextInt(PINNED));
+                }
+                return true;
+            }
+        };
+        Thread scheduledAnnouncer = new Worker("scheduled announcer") {
+            protected boolean work() {
+                announcerThread.run();
+                return true;
+            }
+        };
+
+        Thread[] workers = {adder, deleter, reloader, manualAnnouncer, scheduledAnnouncer};
+        for (Thread worker : workers) {
+            worker.start();
+        }
+
+        // The test thread is the main thread of the server.
+        while (adder.isAlive() && failures.isEmpty()) {
+            server.scheduler.tick();
+        }
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        server.scheduler.tick(10);
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.get(0));
+        }
+
+        // No lost adds, neither in the library nor in the saved configuration.
+        List<String> expected = new ArrayList<String>(initial);
+        expected.addAll(added);
+        expected.removeAll(removed);
+        assertEquals(ADDED, added.size());
+        assertEquals(expected, plugin.getAnnouncements());
+        plugin.reloadConfiguration();
+        assertEquals(expected, plugin.getAnnouncements());
+
+        checkSequentialCycles(server.getRecorded());
+    }
+
+    /**
+     * Checks that the scheduled announcements went through the library in order: the stable announcements are shown in
+     * their order without any gap or repetition, and no announcement is shown twice within a cycle. The pinned
+     * announcements are skipped, they are announced manually too.
+     *
+     * @param shown the shown announcements, in order.
+     */
+    private void checkSequentialCycles(List<String> shown) {
+        List<String> stable = initial.subList(PINNED, PINNED + STABLE);
+        Set<String> shownInCycle = new HashSet<String>();
+        int expectedStable = -1;
+        int cycles = 0;
+
+        for (int position = 0; position < shown.size(); ++position) {
+            String message = shown.get(position);
+            if (message.startsWith("pinned-")) {
+                continue;
+            }
+
+            int stableIndex = stable.indexOf(message);
+            if (stableIndex >= 0) {
+                if (expectedStable >= 0 && stableIndex != expectedStable) {
+                    fail(String.format("Expected %s but %s was shown at position %d: %s", stable.get(expectedStable),
+                        message, position, around(shown, position)));
+                }
+                expectedStable = (stableIndex + 1) % STABLE;
+                if (stableIndex == 0) {
+                    shownInCycle.clear();
+                    ++cycles;
+                }
+            }
+
+            if (cycles > 0 && !shownInCycle.add(message)) {
+                fail(String.format("%s was shown twice in a cycle at position %d: %s", message, position,
+                    around(shown, position)));
+            }
+        }
+
+        assertTrue("Only " + cycles + " cycles were shown.", cycles >= 3);
+    }
+
+    /**
+     * @return the shown announcements around the passed position, for failure messages.
+     */
+    private static List<String> around(List<String> shown, int position) {
+        return shown.subList(Math.max(0, position - 20), Math.min(shown.size(), position + 5));
+    }
+
+    /**
+     * Thread which repeats its work until the test stops, it fails or it's done.
+     */
+    private abstract class Worker extends Thread {
+        /**
+         * Allocates a new worker.
+         *
+         * @param name the name of the thread.
+         */
+        Worker(String name) {
+            super(name);
+        }
+
+        /**
+         * Does a single step of the work.
+         *
+         * @return true if there is more work.
+         */
+        protected abstract boolean work();
+
+        @Override
+        public void run() {
+            try {
+                while (running.get() && work()) {
+                    Thread.yield();
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the plugin on a simulated large server for hours of ticks, and reports the cost of the ticks and the allocated
+ * memory. The size of the simulation and the thresholds are set in the pom.xml, and can be overridden on the command
+ * line, e.g. mvn test -Dsoak.players=10000.
+ *
+ * @author MiHo
+ */
+public class AnnouncerSoakTest {
+    /**
+     * Number of online players.
+     */
+    private static final int PLAYERS = Integer.getInteger("soak.players", 5000);
+
+    /**
+     * Number of announcements in the library.
+     */
+    private static final int ANNOUNCEMENTS = Integer.getInteger("soak.announcements", 2000);
+
+    /**
+     * Simulated hours.
+     */
+    private static final double HOURS = doubleProperty("soak.hours", 4);
+
+    /**
+     * Maximum 99th percentile of the ticks which don't announce anything, in milliseconds.
+     */
+    private static final double MAX_IDLE_TICK_P99_MILLIS = doubleProperty("soak.max-idle-tick-p99-millis", 1);
+
+    /**
+     * Maximum 99th percentile of the ticks which announce something, in milliseconds.
+     */
+    private static final double MAX_ANNOUNCEMENT_TICK_P99_MILLIS =
+        doubleProperty("soak.max-announcement-tick-p99-millis", 25);
+
+    /**
+     * Maximum average allocation of the ticks which don't announce anything, in bytes.
+     */
+    private static final double MAX_IDLE_TICK_BYTES = doubleProperty("soak.max-idle-tick-bytes", 512);
+
+    /**
+     * Maximum average allocation of the ticks which announce something, in bytes. Includes the fake server.
+     */
+    private static final double MAX_ANNOUNCEMENT_TICK_BYTES =
+        doubleProperty("soak.max-announcement-tick-bytes", 128 * 1024);
+
+    /**
+     * Interval of the announcements in seconds.
+     */
+    private static final int INTERVAL = 5;
+
+    /**
+     * Number of ticks in an hour.
+     */
+    private static final int TICKS_PER_HOUR = 60 * 60 * 20;
+
+    /**
+     * Number of ticks run before measuring, so the code is compiled by the JIT.
+     */
+    private static final int WARM_UP_TICKS = TICKS_PER_HOUR / 4;
+
+    /**
+     * The simulated server.
+     */
+    private FakeServer server;
+
+    /**
+     * The data folder of the plugin.
+     */
+    private File dataFolder;
+
+    /**
+     * A player in the nether, who belongs to the audience.
+     */
+    private FakePlayer netherPlayer;
+
+    /**
+     * A player in the overworld, who doesn't belong to the audience.
+     */
+    private FakePlayer worldPlayer;
+
+    /**
+     * The plugin under test.
+     */
+    private AnnouncerPlugin plugin;
+
+    @Before
+    public void setUp() throws Exception {
+        List<String> messages = new ArrayList<String>(ANNOUNCEMENTS);
+        for (int index = 0; index < ANNOUNCEMENTS; ++index) {
+            switch (index % 10) {
+                case 0:
+                    messages.add(String.format("&eTip #%d: &fVisit our website!&n&7Second line of tip #%d.",
+                        index, index));
+                    break;
+                case 1:
+                    messages.add(String.format("&aReward #%d: &fYou got a reward!&n/say Reward %d", index, index));
+                    break;
+                case 2:
+                    messages.add(String.format("@audience:nether &4Careful #%d: &fThe nether is dangerous!", index));
+                    break;
+                default:
+                    messages.add(String.format("&bAnnouncement #%d: &fHave fun on our server!", index));
+            }
+        }
+
+        dataFolder = FakeServer.createDataFolder("announcement:\n" +
+            "    prefix: '&c[Announcement] '\n" +
+            "    interval: " + INTERVAL + "\n" +
+            "    min-gap: 0\n" +
+            "    enabled: true\n" +
+            "    random: false\n" +
+            "    audiences:\n" +
+            "        nether:\n" +
+            "            world: world_nether\n" +
+            "    messages:\n" +
+            FakeServer.toYamlList(messages, "    "));
+
+        server = new FakeServer();
+        server.addWorld("world_nether");
+        for (int index = 0; index < PLAYERS; ++index) {
+            FakePlayer player = server.addPlayer("Player" + index, index % 10 == 0 ? "world_nether" : "world",
+                AnnouncerPermissions.RECEIVER);
+            if (index == 0) {
+                netherPlayer = player;
+            } else if (index == 1) {
+                worldPlayer = player;
+            }
+        }
+        plugin = server.enablePlugin(dataFolder);
+    }
+
+    @After
+    public void tearDown() {
+        plugin.onDisable();
+        FakeServer.deleteDataFolder(dataFolder);
+    }
+
+    @Test
+    public void staysWithinTheTickBudget() throws Exception {
+        assertEquals(ANNOUNCEMENTS, plugin.numberOfAnnouncements());
+        server.scheduler.tick(WARM_UP_TICKS);
+
+        int ticks = (int) (HOURS * TICKS_PER_HOUR);
+        long[] tickNanos = new long[ticks];
+        long[] tickBytes = new long[ticks];
+        boolean[] announcing = new boolean[ticks];
+        AllocationCounter allocations = new AllocationCounter();
+
+        long started = System.nanoTime();
+        for (int tick = 0; tick < ticks; ++tick) {
+            long outputBefore = server.getDeliveredMessages() + server.getDispatchedCommands();
+            long bytesBefore = allocations.get();
+            long tickStart = System.nanoTime();
+            server.scheduler.tick();
+            tickNanos[tick] = System.nanoTime() - tickStart;
+            tickBytes[tick] = Math.max(0, allocations.get() - bytesBefore - allocations.overhead);
+            announcing[tick] = server.getDeliveredMessages() + server.getDispatchedCommands() != outputBefore;
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        Statistics all = new Statistics(tickNanos, tickBytes, announcing, null);
+        Statistics idle = new Statistics(tickNanos, tickBytes, announcing, false);
+        Statistics announcements = new Statistics(tickNanos, tickBytes, announcing, true);
+
+        System.out.println(String.format("Soak test: %d players, %d announcements, %d ticks (%.1f simulated hours) " +
+            "in %.1f seconds", PLAYERS, ANNOUNCEMENTS, ticks, HOURS, seconds));
+        System.out.println("  All ticks:          " + all);
+        System.out.println("  Idle ticks:         " + idle);
+        System.out.println("  Announcement ticks: " + announcements);
+        System.out.println(String.format("  %d messages delivered, %d commands dispatched",
+            server.getDeliveredMessages(), server.getDispatchedCommands()));
+
+        // Every interval exactly one announcement, the ones for the audience only reach the nether.
+        assertEquals(ticks / (INTERVAL * 20), announcements.count, 1);
+        assertTrue(netherPlayer.getReceived() > worldPlayer.getReceived());
+
+        assertTrue(String.format("99th percentile of the idle ticks is %.3f ms, allowed are %.3f ms.",
+            idle.percentileMillis(99), MAX_IDLE_TICK_P99_MILLIS),
+            idle.percentileMillis(99) <= MAX_IDLE_TICK_P99_MILLIS);
+        assertTrue(String.format("99th percentile of the announcement ticks is %.3f ms, allowed are %.3f ms.",
+            announcements.percentileMillis(99), MAX_ANNOUNCEMENT_TICK_P99_MILLIS),
+            announcements.percentileMillis(99) <= MAX_ANNOUNCEMENT_TICK_P99_MILLIS);
+        if (allocations.isSupported()) {
+            assertTrue(String.format("Idle ticks allocate %.0f bytes, allowed are %.0f bytes.",
+                idle.averageBytes(), MAX_IDLE_TICK_BYTES), idle.averageBytes() <= MAX_IDLE_TICK_BYTES);
+            assertTrue(String.format("Announcement ticks allocate %.0f bytes, allowed are %.0f bytes.",
+                announcements.averageBytes(), MAX_ANNOUNCEMENT_TICK_BYTES),
+                announcements.averageBytes() <= MAX_ANNOUNCEMENT_TICK_BYTES);
+        }
+    }
+
+    /**
+     * Reads a floating point number from the system properties.
+     */
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value != null && value.trim().length() > 0 ? Double.parseDouble(value.trim()) : defaultValue;
+    }
+
+    /**
+     * Cost of a group of ticks.
+     */
+    private static final class Statistics {
+        /**
+         * The sorted durations of the ticks in nanoseconds.
+         */
+        private final long[] nanos;
+
+        /**
+         * Number of ticks.
+         */
+        private final int count;
+
+        /**
+         * Sum of the allocated bytes of all ticks.
+         */
+        private long bytes = 0;
+
+        /**
+         * Collects the cost of the ticks.
+         *
+         * @param tickNanos  the durations of all ticks.
+         * @param tickBytes  the allocated bytes of all ticks.
+         * @param announcing flags which of the ticks announced something.
+         * @param selected   true for the announcing ticks, false for the other ones, null for all ticks.
+         */
+        Statistics(long[] tickNanos, long[] tickBytes, boolean[] announcing, Boolean selected) {
+            long[] selectedNanos = new long[tickNanos.length];
+            int selectedCount = 0;
+            for (int tick = 0; tick < tickNanos.length; ++tick) {
+                if (selected == null || selected == announcing[tick]) {
+                    selectedNanos[selectedCount++] = tickNanos[tick];
+                    bytes += tickBytes[tick];
+                }
+            }
+            nanos = new long[selectedCount];
+            System.arraycopy(selectedNanos, 0, nanos, 0, selectedCount);
+            Arrays.sort(nanos);
+            count = selectedCount;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100.
+         * @return the duration of the percentile in milliseconds.
+         */
+        double percentileMillis(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+            return nanos[Math.max(0, Math.min(count - 1, index))] / 1e6;
+        }
+
+        /**
+         * @return the average allocated bytes per tick.
+         */
+        double averageBytes() {
+            return count > 0 ? (double) bytes / count : 0;
+        }
+
+        public String toString() {
+            return String.format("%7d ticks, p50 %.4f ms, p90 %.4f ms, p99 %.4f ms, max %.4f ms, %.0f bytes per tick",
+                count, percentileMillis(50), percentileMillis(90), percentileMillis(99), percentileMillis(100),
+                averageBytes());
+        }
+    }
+
+    /**
+     * Reads the bytes allocated by the current thread. Only supported by JVMs which provide the
+     * com.sun.management.ThreadMXBean, on other ones no allocations are counted.
+     */
+    private static final class AllocationCounter {
+        /**
+         * The method which returns the allocated bytes of a thread, or null if not supported.
+         */
+        private final Method method;
+
+        /**
+         * The arguments of the method, allocated once so reading the counter allocates as little as possible.
+         */
+        private final Object[] threadId = new Object[]{Thread.currentThread().getId()};
+
+        /**
+         * Bytes allocated by reading the counter itself.
+         */
+        private final long overhead;
+
+        /**
+         * Looks up the method and measures the overhead.
+         */
+        AllocationCounter() {
+            Method lookedUp;
+            try {
+                Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+                lookedUp = beanClass.isInstance(ManagementFactory.getThreadMXBean()) ?
+                    beanClass.getMethod("getThreadAllocatedBytes", Long.TYPE) : null;
+            } catch (Exception e) {
+                lookedUp = null;
+            }
+            method = lookedUp;
+
+            long minimum = Long.MAX_VALUE;
+            for (int sample = 0; sample < 1000; ++sample) {
+                long before = get();
+                minimum = Math.min(minimum, get() - before);
+            }
+            overhead = Math.max(0, minimum);
+        }
+
+        /**
+         * @return true if the allocated bytes are counted.
+         */
+        boolean isSupported() {
+            return method != null;
+        }
+
+        /**
+         * @return the bytes allocated by the current thread, always 0 if not supported.
+         */
+        long get() {
+            if (method == null) {
+                return 0;
+            }
+            try {
+                return (Long) method.invoke(ManagementFactory.getThreadMXBean(), threadId);
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+    }
+}
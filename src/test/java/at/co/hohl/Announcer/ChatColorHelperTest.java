@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import org.bukkit.ChatColor;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the single pass replacement of the color codes gives the same results as the former implementation,
+ * which replaced the codes of every color with a regular expression.
+ *
+ * @author MiHo
+ */
+public class ChatColorHelperTest {
+    /**
+     * Characters of the random messages, with a lot of ampersands and color chars.
+     */
+    private static final String ALPHABET = "&&&&0123456789abcdefklmnorABCDEFKxyz #/\u00a7\\$";
+
+    @Test
+    public void replacesColorCodes() {
+        assertEquals(ChatColor.RED + "[Announcement] " + ChatColor.WHITE + "Hello",
+            ChatColorHelper.replaceColorCodes("&c[Announcement] &fHello"));
+        assertEquals("&", ChatColorHelper.replaceColorCodes("&"));
+        assertEquals("&x & &", ChatColorHelper.replaceColorCodes("&x & &"));
+        assertEquals("&" + ChatColor.RED + "c", ChatColorHelper.replaceColorCodes("&&cc"));
+    }
+
+    @Test
+    public void returnsMessagesWithoutAmpersandUnchanged() {
+        String message = "Nothing to replace here.";
+        assertSame(message, ChatColorHelper.replaceColorCodes(message));
+    }
+
+    @Test
+    public void matchesFormerImplementation() {
+        Random random = new Random(42);
+        for (int sample = 0; sample < 100000; ++sample) {
+            StringBuilder message = new StringBuilder();
+            int length = random.nextInt(24);
+            for (int index = 0; index < length; ++index) {
+                message.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+
+            assertEquals(message.toString(), formerReplaceColorCodes(message.toString()),
+                ChatColorHelper.replaceColorCodes(message.toString()));
+        }
+    }
+
+    /**
+     * The former implementation of {@link ChatColorHelper#replaceColorCodes(String)}.
+     */
+    private static String formerReplaceColorCodes(String message) {
+        for (ChatColor color : ChatColor.values()) {
+            message = message.replaceAll(String.format("&%c", color.getChar()), color.toString());
+        }
+
+        return message;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Base of the fake Bukkit objects used by the tests. The fakes are dynamic proxies, so they work with every version of
+ * the Bukkit interfaces. Methods which aren't handled by the fake return null, false or 0.
+ *
+ * @author MiHo
+ */
+abstract class FakeObject implements InvocationHandler {
+    /**
+     * Returned by {@link #handle(String, Object[])} for methods the fake doesn't know.
+     */
+    static final Object UNHANDLED = new Object();
+
+    /**
+     * Passed to {@link #handle(String, Object[])} for methods without arguments.
+     */
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        int parameters = args != null ? args.length : 0;
+        if ("equals".equals(name) && parameters == 1) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name) && parameters == 0) {
+            return System.identityHashCode(proxy);
+        } else if ("toString".equals(name) && parameters == 0) {
+            return toString();
+        }
+
+        Object result = handle(name, args != null ? args : NO_ARGUMENTS);
+        return result != UNHANDLED ? result : defaultValue(method.getReturnType());
+    }
+
+    /**
+     * Handles a call of the fake.
+     *
+     * @param method the name of the called method.
+     * @param args   the arguments.
+     * @return the result, or {@link #UNHANDLED} if the fake doesn't know the method.
+     * @throws Throwable thrown to the caller of the method.
+     */
+    protected abstract Object handle(String method, Object[] args) throws Throwable;
+
+    /**
+     * Creates a proxy, which passes all calls to the handler.
+     *
+     * @param type    the interface to implement.
+     * @param handler the handler of the calls.
+     * @param <T>     the interface to implement.
+     * @return the proxy.
+     */
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FakeObject.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * @param type the return type of a method.
+     * @return null, false or 0, depending on the type.
+     */
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == Void.TYPE) {
+            return null;
+        } else if (type == Boolean.TYPE) {
+            return false;
+        } else if (type == Character.TYPE) {
+            return (char) 0;
+        } else if (type == Byte.TYPE) {
+            return (byte) 0;
+        } else if (type == Short.TYPE) {
+            return (short) 0;
+        } else if (type == Integer.TYPE) {
+            return 0;
+        } else if (type == Long.TYPE) {
+            return 0L;
+        } else if (type == Float.TYPE) {
+            return 0F;
+        } else {
+            return 0D;
+        }
+    }
+}
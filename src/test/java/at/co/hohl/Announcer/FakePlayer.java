@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Fake online player, which counts the received messages.
+ *
+ * @author MiHo
+ */
+final class FakePlayer extends FakeObject {
+    /**
+     * The player passed to the plugin.
+     */
+    final Player player = proxy(Player.class, this);
+
+    /**
+     * The server the player is online at.
+     */
+    private final FakeServer server;
+
+    /**
+     * The name of the player.
+     */
+    private final String name;
+
+    /**
+     * The world the player is in.
+     */
+    private final World world;
+
+    /**
+     * The permissions of the player.
+     */
+    private final Set<String> permissions;
+
+    /**
+     * Number of messages the player received.
+     */
+    private long received = 0;
+
+    /**
+     * Allocates a new player. Use {@link FakeServer#addPlayer(String, String, String...)} instead.
+     *
+     * @param server      the server the player is online at.
+     * @param name        the name of the player.
+     * @param world       the world the player is in.
+     * @param permissions the permissions of the player.
+     */
+    FakePlayer(FakeServer server, String name, World world, String... permissions) {
+        this.server = server;
+        this.name = name;
+        this.world = world;
+        this.permissions = new HashSet<String>(Arrays.asList(permissions));
+    }
+
+    /**
+     * @return the number of messages the player received.
+     */
+    long getReceived() {
+        return received;
+    }
+
+    /**
+     * @param permission the permission to check.
+     * @return true if the player has the permission.
+     */
+    boolean hasPermission(String permission) {
+        return permissions.contains(permission);
+    }
+
+    /**
+     * Called for every message the player receives.
+     *
+     * @param messages the number of received messages.
+     */
+    void receive(int messages) {
+        received += messages;
+        server.delivered(messages);
+    }
+
+    protected Object handle(String method, Object[] args) {
+        if ("sendMessage".equals(method)) {
+            receive(args[0] instanceof String[] ? ((String[]) args[0]).length : 1);
+            return null;
+        } else if ("hasPermission".equals(method)) {
+            return args[0] instanceof String && hasPermission((String) args[0]);
+        } else if ("getName".equals(method) || "getDisplayName".equals(method)) {
+            return name;
+        } else if ("getWorld".equals(method)) {
+            return world;
+        } else if ("isOnline".equals(method)) {
+            return true;
+        }
+        return UNHANDLED;
+    }
+
+    public String toString() {
+        return name;
+    }
+}
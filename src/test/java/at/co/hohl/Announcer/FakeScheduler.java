@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Fake BukkitScheduler, which only advances when the test calls {@link #tick()}. Asynchronous tasks run on the ticking
+ * thread too, so the tests stay deterministic. Tasks may be scheduled from any thread.
+ *
+ * @author MiHo
+ */
+final class FakeScheduler extends FakeObject {
+    /**
+     * The scheduler passed to the plugin.
+     */
+    final BukkitScheduler scheduler = proxy(BukkitScheduler.class, this);
+
+    /**
+     * All scheduled tasks, in the order they were scheduled.
+     */
+    private final List<Task> tasks = new ArrayList<Task>();
+
+    /**
+     * The tasks which are due in the current tick. Reused, so ticking doesn't allocate anything.
+     */
+    private final List<Task> due = new ArrayList<Task>();
+
+    /**
+     * Id of the next scheduled task.
+     */
+    private int nextId = 1;
+
+    /**
+     * The current tick.
+     */
+    private long currentTick = 0;
+
+    /**
+     * Runs all tasks which are due in the next tick. Must only be called by one thread, the main thread of the test.
+     */
+    void tick() {
+        synchronized (this) {
+            ++currentTick;
+            int kept = 0;
+            for (int index = 0; index < tasks.size(); ++index) {
+                Task task = tasks.get(index);
+                if (task.next <= currentTick) {
+                    due.add(task);
+                    if (task.period <= 0) {
+                        continue;
+                    }
+                    task.next += task.period;
+                }
+                tasks.set(kept++, task);
+            }
+            while (tasks.size() > kept) {
+                tasks.remove(tasks.size() - 1);
+            }
+        }
+
+        for (int index = 0; index < due.size(); ++index) {
+            if (!due.get(index).cancelled) {
+                due.get(index).runnable.run();
+            }
+        }
+        due.clear();
+    }
+
+    /**
+     * Runs the passed number of ticks.
+     *
+     * @param ticks the number of ticks to run.
+     */
+    void tick(int ticks) {
+        for (int tick = 0; tick < ticks; ++tick) {
+            tick();
+        }
+    }
+
+    /**
+     * @return the number of ticks which were run.
+     */
+    synchronized long getCurrentTick() {
+        return currentTick;
+    }
+
+    protected synchronized Object handle(String method, Object[] args) {
+        if ("scheduleSyncDelayedTask".equals(method) || "scheduleAsyncDelayedTask".equals(method)) {
+            return schedule((Runnable) args[1], args.length > 2 ? (Long) args[2] : 0, 0);
+        } else if ("scheduleSyncRepeatingTask".equals(method) || "scheduleAsyncRepeatingTask".equals(method)) {
+            return schedule((Runnable) args[1], (Long) args[2], Math.max(1, (Long) args[3]));
+        } else if ("callSyncMethod".equals(method)) {
+            FutureTask<?> future = createFuture((Callable<?>) args[1]);
+            schedule(future, 0, 0);
+            return future;
+        } else if ("cancelTask".equals(method)) {
+            for (Task task : tasks) {
+                if (task.id == (Integer) args[0]) {
+                    cancel(task);
+                    break;
+                }
+            }
+            return null;
+        } else if ("cancelTasks".equals(method) || "cancelAllTasks".equals(method)) {
+            for (Task task : new ArrayList<Task>(tasks)) {
+                cancel(task);
+            }
+            return null;
+        } else if ("isQueued".equals(method)) {
+            for (Task task : tasks) {
+                if (task.id == (Integer) args[0]) {
+                    return true;
+                }
+            }
+            return false;
+        } else if ("getActiveWorkers".equals(method) || "getPendingTasks".equals(method)) {
+            return Collections.emptyList();
+        }
+        return UNHANDLED;
+    }
+
+    /**
+     * Adds a task.
+     *
+     * @return the id of the task.
+     */
+    private int schedule(Runnable runnable, long delay, long period) {
+        Task task = new Task(nextId++, runnable, currentTick + Math.max(1, delay), period);
+        tasks.add(task);
+        return task.id;
+    }
+
+    /**
+     * Wraps the callable into a future.
+     */
+    private static <T> FutureTask<T> createFuture(Callable<T> callable) {
+        return new FutureTask<T>(callable);
+    }
+
+    /**
+     * Removes a task. It doesn't run anymore, even if it's due in the current tick.
+     */
+    private void cancel(Task task) {
+        task.cancelled = true;
+        tasks.remove(task);
+    }
+
+    /**
+     * Scheduled task.
+     */
+    private static final class Task {
+        /**
+         * The id of the task.
+         */
+        private final int id;
+
+        /**
+         * The task to run.
+         */
+        private final Runnable runnable;
+
+        /**
+         * The period in ticks, 0 if it only runs once.
+         */
+        private final long period;
+
+        /**
+         * The tick the task runs next.
+         */
+        private long next;
+
+        /**
+         * Flag if the task was cancelled.
+         */
+        private volatile boolean cancelled = false;
+
+        /**
+         * Allocates a new task.
+         */
+        Task(int id, Runnable runnable, long next, long period) {
+            this.id = id;
+            this.runnable = runnable;
+            this.next = next;
+            this.period = period;
+        }
+    }
+}
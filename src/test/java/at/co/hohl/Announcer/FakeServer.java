@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2011-2012 Mi.Ho.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package at.co.hohl.Announcer;
+
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory fake of a Bukkit server, which runs the plugin in the tests. It counts the delivered messages and the
+ * dispatched commands, and optionally records them.
+ *
+ * @author MiHo
+ */
+final class FakeServer extends FakeObject {
+    /**
+     * The server passed to the plugin.
+     */
+    final Server server = proxy(Server.class, this);
+
+    /**
+     * The scheduler of the server.
+     */
+    final FakeScheduler scheduler = new FakeScheduler();
+
+    /**
+     * The logger of the server. Only warnings are printed.
+     */
+    private final Logger logger = Logger.getLogger(FakeServer.class.getName());
+
+    /**
+     * The console, which has all permissions.
+     */
+    private final ConsoleCommandSender console = proxy(ConsoleCommandSender.class, new FakeObject() {
+        protected Object handle(String method, Object[] args) {
+            if ("getName".equals(method)) {
+                return "CONSOLE";
+            } else if ("hasPermission".equals(method) || "isOp".equals(method)) {
+                return true;
+            }
+            return UNHANDLED;
+        }
+    });
+
+    /**
+     * The plugin manager, which ignores all registrations.
+     */
+    private final PluginManager pluginManager = proxy(PluginManager.class, new FakeObject() {
+        protected Object handle(String method, Object[] args) {
+            return UNHANDLED;
+        }
+    });
+
+    /**
+     * The worlds by name.
+     */
+    private final Map<String, World> worlds = new LinkedHashMap<String, World>();
+
+    /**
+     * The online players.
+     */
+    private final List<FakePlayer> players = new ArrayList<FakePlayer>();
+
+    /**
+     * Cached array of the online players, as returned to the plugin.
+     */
+    private Player[] onlinePlayers = new Player[0];
+
+    /**
+     * The commands of the plugin by name.
+     */
+    private final Map<String, PluginCommand> commands = new HashMap<String, PluginCommand>();
+
+    /**
+     * The plugin running on this server.
+     */
+    private Plugin plugin;
+
+    /**
+     * Number of messages received by all players.
+     */
+    private long deliveredMessages = 0;
+
+    /**
+     * Number of broadcasts.
+     */
+    private long broadcasts = 0;
+
+    /**
+     * Number of dispatched commands.
+     */
+    private long dispatchedCommands = 0;
+
+    /**
+     * The broadcasts and dispatched commands (with a leading slash), or null if nothing is recorded.
+     */
+    private List<String> recorded = null;
+
+    /**
+     * Allocates a new server with the world "world".
+     */
+    FakeServer() {
+        logger.setLevel(Level.WARNING);
+        addWorld("world");
+    }
+
+    /**
+     * Adds a world.
+     *
+     * @param name the name of the world.
+     * @return the world.
+     */
+    World addWorld(final String name) {
+        World world = proxy(World.class, new FakeObject() {
+            protected Object handle(String method, Object[] args) {
+                return "getName".equals(method) ? name : UNHANDLED;
+            }
+
+            public String toString() {
+                return name;
+            }
+        });
+        worlds.put(name, world);
+        return world;
+    }
+
+    /**
+     * Adds an online player. Must not be called while the plugin is running, the plugin doesn't get any join event.
+     *
+     * @param name        the name of the player.
+     * @param world       the name of the world the player is in, must be added before.
+     * @param permissions the permissions of the player.
+     * @return the player.
+     */
+    FakePlayer addPlayer(String name, String world, String... permissions) {
+        FakePlayer player = new FakePlayer(this, name, worlds.get(world), permissions);
+        players.add(player);
+        onlinePlayers = new Player[players.size()];
+        for (int index = 0; index < players.size(); ++index) {
+            onlinePlayers[index] = players.get(index).player;
+        }
+        return player;
+    }
+
+    /**
+     * Creates the plugin, initializes it like the plugin loader would do and enables it.
+     *
+     * @param dataFolder the data folder of the plugin.
+     * @return the enabled plugin.
+     * @throws Exception if the plugin could not be created.
+     */
+    AnnouncerPlugin enablePlugin(File dataFolder) throws Exception {
+        AnnouncerPlugin announcerPlugin = new AnnouncerPlugin();
+        plugin = announcerPlugin;
+
+        InputStream descriptionStream = FakeServer.class.getResourceAsStream("/plugin.yml");
+        PluginDescriptionFile description;
+        try {
+            description = new PluginDescriptionFile(descriptionStream);
+        } finally {
+            descriptionStream.close();
+        }
+
+        // JavaPlugin.initialize isn't public, so call it like the plugin loader does.
+        for (Method method : JavaPlugin.class.getDeclaredMethods()) {
+            if (!"initialize".equals(method.getName())) {
+                continue;
+            }
+
+            Class<?>[] types = method.getParameterTypes();
+            Object[] arguments = new Object[types.length];
+            boolean dataFolderPassed = false;
+            for (int index = 0; index < types.length; ++index) {
+                if (types[index] == Server.class) {
+                    arguments[index] = server;
+                } else if (types[index] == PluginDescriptionFile.class) {
+                    arguments[index] = description;
+                } else if (types[index] == File.class) {
+                    arguments[index] = dataFolderPassed ? new File(dataFolder, "ScheduledAnnouncer.jar") : dataFolder;
+                    dataFolderPassed = true;
+                } else if (types[index] == ClassLoader.class) {
+                    arguments[index] = FakeServer.class.getClassLoader();
+                }
+            }
+            method.setAccessible(true);
+            method.invoke(announcerPlugin, arguments);
+        }
+
+        announcerPlugin.onEnable();
+        return announcerPlugin;
+    }
+
+    /**
+     * Creates a temporary data folder with the passed config.yml.
+     *
+     * @param configuration the content of the config.yml.
+     * @return the data folder.
+     * @throws IOException if the folder could not be created.
+     */
+    static File createDataFolder(String configuration) throws IOException {
+        File dataFolder = File.createTempFile("ScheduledAnnouncer", "");
+        if (!dataFolder.delete() || !dataFolder.mkdir()) {
+            throw new IOException("Could not create " + dataFolder);
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dataFolder, "config.yml")), "UTF-8");
+        try {
+            writer.write(configuration);
+        } finally {
+            writer.close();
+        }
+        return dataFolder;
+    }
+
+    /**
+     * Deletes the data folder and all files in it.
+     *
+     * @param dataFolder the data folder.
+     */
+    static void deleteDataFolder(File dataFolder) {
+        File[] files = dataFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dataFolder.delete();
+    }
+
+    /**
+     * Formats the messages as YAML list.
+     *
+     * @param messages the messages.
+     * @param indent   the indent of the list.
+     * @return the YAML list, one line for each message.
+     */
+    static String toYamlList(List<String> messages, String indent) {
+        StringBuilder yaml = new StringBuilder();
+        for (String message : messages) {
+            yaml.append(indent).append("- '").append(message.replace("'", "''")).append("'\n");
+        }
+        return yaml.toString();
+    }
+
+    /**
+     * Records all broadcasts and dispatched commands from now on.
+     */
+    void startRecording() {
+        recorded = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    /**
+     * @return the recorded broadcasts and dispatched commands (with a leading slash).
+     */
+    List<String> getRecorded() {
+        synchronized (recorded) {
+            return new ArrayList<String>(recorded);
+        }
+    }
+
+    /**
+     * Called by the players for every received message.
+     *
+     * @param messages the number of received messages.
+     */
+    void delivered(int messages) {
+        deliveredMessages += messages;
+    }
+
+    /**
+     * @return the number of messages received by all players.
+     */
+    long getDeliveredMessages() {
+        return deliveredMessages;
+    }
+
+    /**
+     * @return the number of broadcasts.
+     */
+    long getBroadcasts() {
+        return broadcasts;
+    }
+
+    /**
+     * @return the number of dispatched commands.
+     */
+    long getDispatchedCommands() {
+        return dispatchedCommands;
+    }
+
+    protected Object handle(String method, Object[] args) throws Exception {
+        if ("getOnlinePlayers".equals(method)) {
+            return onlinePlayers;
+        } else if ("broadcast".equals(method) || "broadcastMessage".equals(method)) {
+            return broadcast((String) args[0], args.length > 1 ? (String) args[1] : null);
+        } else if ("dispatchCommand".equals(method)) {
+            ++dispatchedCommands;
+            if (recorded != null) {
+                recorded.add("/" + args[1]);
+            }
+            return true;
+        } else if ("getScheduler".equals(method)) {
+            return scheduler.scheduler;
+        } else if ("getLogger".equals(method)) {
+            return logger;
+        } else if ("getConsoleSender".equals(method)) {
+            return console;
+        } else if ("getPluginManager".equals(method)) {
+            return pluginManager;
+        } else if ("getPluginCommand".equals(method)) {
+            return getPluginCommand((String) args[0]);
+        } else if ("getWorld".equals(method)) {
+            return worlds.get(args[0]);
+        } else if ("getWorlds".equals(method)) {
+            return new ArrayList<World>(worlds.values());
+        } else if ("getName".equals(method)) {
+            return "FakeServer";
+        } else if ("getVersion".equals(method) || "getBukkitVersion".equals(method)) {
+            return "test";
+        }
+        return UNHANDLED;
+    }
+
+    /**
+     * Sends the message to all players with the permission. The players aren't called through their proxies, so the
+     * fake doesn't allocate anything for every player.
+     *
+     * @return the number of players which received the message.
+     */
+    private int broadcast(String message, String permission) {
+        ++broadcasts;
+        if (recorded != null) {
+            recorded.add(message);
+        }
+
+        int receivers = 0;
+        for (int index = 0; index < players.size(); ++index) {
+            FakePlayer player = players.get(index);
+            if (permission == null || player.hasPermission(permission)) {
+                player.receive(1);
+                ++receivers;
+            }
+        }
+        return receivers;
+    }
+
+    /**
+     * Returns the command of the plugin, created on first use.
+     */
+    private synchronized PluginCommand getPluginCommand(String name) throws Exception {
+        PluginCommand command = commands.get(name);
+        if (command == null) {
+            // The constructor of PluginCommand isn't public, the server creates them from the plugin.yml.
+            Constructor<PluginCommand> constructor =
+                PluginCommand.class.getDeclaredConstructor(String.class, Plugin.class);
+            constructor.setAccessible(true);
+            command = constructor.newInstance(name, plugin);
+            commands.put(name, command);
+        }
+        return command;
+    }
+}